@@ -0,0 +1,81 @@
+package org.xmlevaluator.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.xmlevaluator.compiled.CompiledExpression;
+import org.xmlevaluator.compiled.ExpressionCompiler;
+import org.xmlevaluator.dto.Result;
+import org.xmlevaluator.dto.Tree;
+import org.xmlevaluator.evaluator.Calculator;
+import org.xmlevaluator.evaluator.CompiledRule;
+import org.xmlevaluator.evaluator.EvaluationContext;
+import org.xmlevaluator.evaluator.PrimitiveRule;
+import org.xmlevaluator.evaluator.PrimitiveRuleCompiler;
+import org.xmlevaluator.evaluator.RuleCompiler;
+import org.xmlevaluator.treeMaker.TreeProvider;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EvaluateBenchmark {
+    @Param({"arithmetic", "date", "maxMin", "condition"})
+    public String query;
+
+    private Tree tree;
+    private CompiledExpression compiled;
+    private CompiledExpression folded;
+    private CompiledRule rule;
+    private PrimitiveRule primitiveRule;
+    private Calculator calculator;
+    private Calculator frameCalculator;
+
+    @Setup
+    public void setUp() {
+        TreeProvider treeProvider = new TreeProvider();
+        tree = treeProvider.buildTree(Queries.byName(query));
+        compiled = new ExpressionCompiler().compile(tree);
+        folded = treeProvider.compile(Queries.byName(query));
+        rule = new RuleCompiler().compile(folded);
+        primitiveRule = new PrimitiveRuleCompiler().compile(folded);
+        calculator = new Calculator(Queries.variables());
+        frameCalculator = new Calculator(Queries.frame(folded.getVariableLayout()));
+    }
+
+    @Benchmark
+    public Result interpretTree() {
+        return calculator.evaluate(tree);
+    }
+
+    @Benchmark
+    public Result evaluateCompiled() {
+        return calculator.evaluate(compiled);
+    }
+
+    // Constant subtrees folded at compile time.
+    @Benchmark
+    public Result evaluateFolded() {
+        return calculator.evaluate(folded);
+    }
+
+    // Folded expression compiled into a class of its own.
+    @Benchmark
+    public Result evaluateRule() {
+        return rule.evaluate(calculator);
+    }
+
+    // Variables read from slots instead of by name.
+    @Benchmark
+    public Result evaluateRuleWithFrame() {
+        return rule.evaluate(frameCalculator);
+    }
+
+    // Numbers and dates kept unboxed on the stack of the thread's context.
+    @Benchmark
+    public EvaluationContext evaluatePrimitiveRuleWithFrame() {
+        return primitiveRule.evaluate(frameCalculator);
+    }
+}
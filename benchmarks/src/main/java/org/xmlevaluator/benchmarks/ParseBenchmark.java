@@ -0,0 +1,38 @@
+package org.xmlevaluator.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.xmlevaluator.compiled.CompiledExpression;
+import org.xmlevaluator.dto.Tree;
+import org.xmlevaluator.treeMaker.TreeProvider;
+
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParseBenchmark {
+    @Param({"short", "long", "nested"})
+    public String query;
+
+    private String text;
+    private TreeProvider treeProvider;
+
+    @Setup
+    public void setUp() {
+        text = Queries.byName(query);
+        treeProvider = new TreeProvider();
+    }
+
+    @Benchmark
+    public Tree buildTree() {
+        return treeProvider.buildTree(text);
+    }
+
+    @Benchmark
+    public CompiledExpression compile() {
+        return treeProvider.compile(text);
+    }
+}
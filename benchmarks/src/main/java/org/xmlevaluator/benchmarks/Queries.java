@@ -0,0 +1,84 @@
+package org.xmlevaluator.benchmarks;
+
+import org.xmlevaluator.compiled.VariableLayout;
+import org.xmlevaluator.dto.ExpressionType;
+import org.xmlevaluator.dto.VariableStorage;
+import org.xmlevaluator.evaluator.VariableFrame;
+
+/**
+ * Queries and variables shared by the benchmarks.
+ */
+final class Queries {
+    static final String SHORT = "2 + 2";
+    static final String LONG = longQuery(200);
+    static final String NESTED = nestedQuery(30);
+
+    static final String ARITHMETIC = "($a + 7) * $b - 12 / 4 + 2.5 * ($a - $b)";
+    static final String DATE = "$refPeriodEnd - xsd:yearMonthDuration('P3M') + xsd:dayTimeDuration('P1D')";
+    // Variables aren't allowed in argument lists of Calculator.evaluate(Tree), so literals are used here.
+    static final String MAX_MIN = "max(5, 3, 7, 3 * 4) - min(5.5, 3, 2)";
+    static final String CONDITION = "if ((fn:day-from-date($refPeriodEnd)=30) and (fn:month-from-date($refPeriodEnd)=6)) "
+            + "then ($refPeriodEnd - xsd:yearMonthDuration('P3M') + xsd:dayTimeDuration('P1D')) "
+            + "else ($refPeriodEnd - xsd:yearMonthDuration('P3M'))";
+
+    private Queries() {
+    }
+
+    static String byName(String name) {
+        switch (name) {
+            case "short":
+                return SHORT;
+            case "long":
+                return LONG;
+            case "nested":
+                return NESTED;
+            case "arithmetic":
+                return ARITHMETIC;
+            case "date":
+                return DATE;
+            case "maxMin":
+                return MAX_MIN;
+            case "condition":
+                return CONDITION;
+            default:
+                throw new IllegalArgumentException("Unknown query " + name);
+        }
+    }
+
+    static VariableStorage variables() {
+        VariableStorage storage = new VariableStorage();
+        storage.pushVariable("a", "5", ExpressionType.INTEGER);
+        storage.pushVariable("b", "3", ExpressionType.INTEGER);
+        storage.pushVariable("refPeriodEnd", "2000-06-30", ExpressionType.DATE);
+        return storage;
+    }
+
+    // Same values as variables(), bound to the slots of the layout.
+    static VariableFrame frame(VariableLayout layout) {
+        return VariableFrame.builder(layout)
+                .set("a", "5", ExpressionType.INTEGER)
+                .set("b", "3", ExpressionType.INTEGER)
+                .set("refPeriodEnd", "2000-06-30", ExpressionType.DATE)
+                .build();
+    }
+
+    private static String longQuery(int terms) {
+        StringBuilder query = new StringBuilder("1");
+        for (int i = 2; i <= terms; ++i) {
+            query.append(i % 3 == 0 ? " * " : " + ").append(i);
+        }
+        return query.toString();
+    }
+
+    private static String nestedQuery(int depth) {
+        StringBuilder query = new StringBuilder();
+        for (int i = 0; i < depth; ++i) {
+            query.append("(").append(i).append(" + ");
+        }
+        query.append(depth);
+        for (int i = 0; i < depth; ++i) {
+            query.append(")");
+        }
+        return query.toString();
+    }
+}
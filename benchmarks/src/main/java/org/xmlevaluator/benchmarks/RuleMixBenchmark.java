@@ -0,0 +1,88 @@
+package org.xmlevaluator.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.xmlevaluator.OperatorsRealizationLibrary;
+import org.xmlevaluator.compiled.CompiledExpression;
+import org.xmlevaluator.evaluator.Calculator;
+import org.xmlevaluator.evaluator.CompiledRule;
+import org.xmlevaluator.evaluator.RuleCompiler;
+import org.xmlevaluator.treeMaker.TreeProvider;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluates many rules of different shapes in one fork, as a rule engine does, so the call sites shared by all rules
+ * (in the interpreter and in the steps of compiled rules) see many receivers, unlike in {@link EvaluateBenchmark},
+ * where every fork evaluates a single rule. Each invocation evaluates every rule once. Every generated class is compiled
+ * by the JIT on its own, so they take longer to warm up than the steps, which are shared by all rules.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RuleMixBenchmark {
+    // %d is replaced by the number of the rule, so rules of one shape differ in their constants.
+    static final String[] SHAPES = {
+            Queries.ARITHMETIC + " + %d",
+            Queries.DATE + " - xsd:dayTimeDuration('P%dD')",
+            Queries.MAX_MIN + " * %d",
+            Queries.CONDITION,
+            "fn:year-from-date($refPeriodEnd) * %d + fn:month-from-date($refPeriodEnd)",
+            "if ($a = %d) then $b * 2 else ($a - $b) * ($a + $b)",
+            "($a = 5) and (($b = %d) or ($a * $b = 15))",
+            "fn:concat('R', xsd:string($a * %d), 'Q')",
+            "($a * %d + 1) * ($a * %d + 1) - $b",
+            "fn:day-from-date($refPeriodEnd + xsd:yearMonthDuration('P%dM')) + $b",
+    };
+
+    @Param({"50"})
+    public int rules;
+
+    private CompiledExpression[] expressions;
+    private CompiledRule[] steps;
+    private CompiledRule[] classes;
+    private Calculator calculator;
+
+    @Setup
+    public void setUp() {
+        TreeProvider treeProvider = new TreeProvider();
+        RuleCompiler stepCompiler = new RuleCompiler(OperatorsRealizationLibrary.getDefault(), false);
+        RuleCompiler classCompiler = new RuleCompiler();
+        expressions = new CompiledExpression[rules];
+        steps = new CompiledRule[rules];
+        classes = new CompiledRule[rules];
+        for (int i = 0; i < rules; ++i) {
+            String query = String.format(SHAPES[i % SHAPES.length], i + 1, i + 1);
+            expressions[i] = treeProvider.compile(query);
+            steps[i] = stepCompiler.compile(expressions[i]);
+            classes[i] = classCompiler.compile(expressions[i]);
+        }
+        calculator = new Calculator(Queries.variables());
+    }
+
+    @Benchmark
+    public void evaluateFolded(Blackhole blackhole) {
+        for (CompiledExpression expression : expressions) {
+            blackhole.consume(calculator.evaluate(expression));
+        }
+    }
+
+    // Rules compiled into trees of steps.
+    @Benchmark
+    public void evaluateSteps(Blackhole blackhole) {
+        for (CompiledRule rule : steps) {
+            blackhole.consume(rule.evaluate(calculator));
+        }
+    }
+
+    // Rules compiled into classes of their own.
+    @Benchmark
+    public void evaluateClasses(Blackhole blackhole) {
+        for (CompiledRule rule : classes) {
+            blackhole.consume(rule.evaluate(calculator));
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package org.xmlevaluator.benchmarks;
+
+import org.w3c.dom.Document;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * XBRL-like instance with the given number of contexts and facts. Element names carry no prefixes because the DOM
+ * is parsed without namespace support, as in {@code Main}.
+ */
+final class SyntheticXbrl {
+    private SyntheticXbrl() {
+    }
+
+    static byte[] generate(int facts) {
+        StringBuilder xml = new StringBuilder(facts * 200);
+        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<xbrl>\n");
+        xml.append("  <schemaRef href=\"taxonomy.xsd\"/>\n");
+        for (int i = 0; i < facts; ++i) {
+            int month = i % 12 + 1;
+            xml.append("  <context id=\"c").append(i).append("\">")
+                    .append("<entity><identifier scheme=\"http://example.org\">").append(1000 + i % 50)
+                    .append("</identifier></entity>")
+                    .append("<period><startDate>2020-").append(month < 10 ? "0" : "").append(month)
+                    .append("-01</startDate><endDate>2020-12-31</endDate></period></context>\n");
+            xml.append("  <fact contextRef=\"c").append(i).append("\" unitRef=\"RUB\" decimals=\"0\">")
+                    .append(i * 17 % 1000).append("</fact>\n");
+        }
+        xml.append("  <filingInfo><reportDate>2021-03-15</reportDate><scope>I</scope></filingInfo>\n");
+        xml.append("</xbrl>\n");
+        return xml.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static Document parse(byte[] xml) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+    }
+}
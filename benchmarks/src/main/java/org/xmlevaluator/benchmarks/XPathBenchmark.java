@@ -0,0 +1,76 @@
+package org.xmlevaluator.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.w3c.dom.Document;
+import org.xmlevaluator.compiled.CompiledExpression;
+import org.xmlevaluator.compiled.RuleSet;
+import org.xmlevaluator.dto.Result;
+import org.xmlevaluator.dto.VariableStorage;
+import org.xmlevaluator.evaluator.Calculator;
+import org.xmlevaluator.evaluator.StreamedDocument;
+import org.xmlevaluator.evaluator.StreamingExtractor;
+import org.xmlevaluator.treeMaker.TreeProvider;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class XPathBenchmark {
+    static final String[] RULES = {
+            "xsd:date(//period/startDate) + xsd:yearMonthDuration('P1Y')",
+            "if (fn:month-from-date(xsd:date(//period/endDate)) = 12) then 'YES' else 'NO'",
+            "xsd:date(//filingInfo/reportDate) - xsd:dayTimeDuration('P10D')",
+            "if ('I' eq (//filingInfo/scope)) then xsd:yearMonthDuration('P1Y') else xsd:yearMonthDuration('P2Y')",
+            "fn:concat((//entity/identifier), '-', (//filingInfo/scope))",
+            "sum(//fact) / count(//fact)",
+            "max(//period/startDate)",
+    };
+
+    @Param({"100", "10000"})
+    public int facts;
+
+    private byte[] xml;
+    private Document document;
+    private CompiledExpression singleRule;
+    private RuleSet ruleSet;
+    private Calculator calculator;
+
+    @Setup
+    public void setUp() throws Exception {
+        xml = SyntheticXbrl.generate(facts);
+        document = SyntheticXbrl.parse(xml);
+        TreeProvider treeProvider = new TreeProvider();
+        singleRule = treeProvider.compile(RULES[2]);
+        ruleSet = treeProvider.compileAll(Arrays.asList(RULES));
+        calculator = new Calculator(new VariableStorage(), document);
+    }
+
+    // A new calculator per operation: XPath values are remembered by a calculator for the lifetime of its document.
+    @Benchmark
+    public Result singleRule() {
+        return new Calculator(new VariableStorage(), document).evaluate(singleRule);
+    }
+
+    @Benchmark
+    public Result[] ruleSet() {
+        return new Calculator(new VariableStorage(), document).evaluateAll(ruleSet);
+    }
+
+    // The same calculator for all operations, so every XPath value is taken from its memo.
+    @Benchmark
+    public Result[] ruleSetMemoized() {
+        return calculator.evaluateAll(ruleSet);
+    }
+
+    @Benchmark
+    public Result[] ruleSetStreaming() throws Exception {
+        StreamedDocument streamed = new StreamingExtractor(ruleSet).extract(new ByteArrayInputStream(xml));
+        return new Calculator(new VariableStorage(), streamed).evaluateAll(ruleSet);
+    }
+}
@@ -2,21 +2,27 @@ package org.xmlevaluator;
 
 import org.xmlevaluator.dto.*;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.time.Period;
+import java.time.*;
 import java.util.*;
 import java.util.function.BiFunction;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
+/**
+ * Realizations of all supported operators. The library holds no mutable state after construction, so one instance
+ * can be shared by any number of threads; {@link #getDefault()} returns such a shared instance.
+ */
 public class OperatorsRealizationLibrary {
 
-    private static Map<Operator.Type, BiFunction<Expression, Expression, Constant>> realizations;
-    private static final SimpleDateFormat dateFormatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+    private static final OperatorsRealizationLibrary DEFAULT = new OperatorsRealizationLibrary();
+
+    // Indexed by ordinals of operator types; types without a realization have null.
+    private final BiFunction<Expression, Expression, Constant>[] realizations;
+
+    public static OperatorsRealizationLibrary getDefault() {
+        return DEFAULT;
+    }
 
     public OperatorsRealizationLibrary() {
-        realizations = new HashMap<>();
+        Map<Operator.Type, BiFunction<Expression, Expression, Constant>> realizations = new EnumMap<>(Operator.Type.class);
         realizations.put(Operator.Type.PLUS, this::plusOperation);
         realizations.put(Operator.Type.MINUS, this::minusOperation);
         realizations.put(Operator.Type.MULTIPLY, this::multiplyOperation);
@@ -28,6 +34,10 @@ public class OperatorsRealizationLibrary {
         realizations.put(Operator.Type.NOTEQUAL, this::notEqOperation);
         realizations.put(Operator.Type.MAX, this::maxOperation);
         realizations.put(Operator.Type.MIN, this::minOperation);
+        realizations.put(Operator.Type.SUM, this::sumOperation);
+        realizations.put(Operator.Type.COUNT, this::countOperation);
+        realizations.put(Operator.Type.AVG, this::avgOperation);
+        realizations.put(Operator.Type.EXISTS, this::existsOperation);
         realizations.put(Operator.Type.FN_DAY_FROM_DATE, this::fnDayFromDateOperation);
         realizations.put(Operator.Type.FN_MONTH_FROM_DATE, this::fnMonthFromDateOperation);
         realizations.put(Operator.Type.FN_YEAR_FROM_DATE, this::fnYearFromDateOperation);
@@ -36,17 +46,37 @@ public class OperatorsRealizationLibrary {
         realizations.put(Operator.Type.XSD_STRING, this::xsdStringOperation);
         realizations.put(Operator.Type.XSD_DAY_TIME_DURATION, this::xsdDayTimeDurationOperation);
         realizations.put(Operator.Type.XSD_YEAR_MONTH_DURATION, this::xsdYearMonthDurationOperation);
+        @SuppressWarnings("unchecked")
+        BiFunction<Expression, Expression, Constant>[] byOrdinal = new BiFunction[Operator.Type.values().length];
+        for (Map.Entry<Operator.Type, BiFunction<Expression, Expression, Constant>> entry : realizations.entrySet()) {
+            byOrdinal[entry.getKey().ordinal()] = entry.getValue();
+        }
+        this.realizations = byOrdinal;
     }
 
     public BiFunction<Expression, Expression, Constant> getRealization(Operator.Type type) {
-        return realizations.get(type);
+        return realizations[type.ordinal()];
+    }
+
+    /**
+     * Applies the realization of the operator given by {@link #getRealization}, so operators replaced or removed by a
+     * subclass are applied as it says.
+     *
+     * @throws UnsupportedOperationException if the operator has no realization
+     */
+    public Constant apply(Operator.Type type, Expression left, Expression right) {
+        BiFunction<Expression, Expression, Constant> realization = getRealization(type);
+        if (realization == null) {
+            throw new UnsupportedOperationException("Operator " + type.getStringType() + " is not supported.");
+        }
+        return realization.apply(left, right);
     }
 
     public Date getDateFromString(String s) {
         try {
-            Date date = dateFormatter.parse(s);
-            return date;
-        } catch (ParseException pe) {
+            LocalDateTime date = LocalDateTime.ofEpochSecond(Dates.parse(s), 0, ZoneOffset.UTC);
+            return Date.from(date.atZone(ZoneId.systemDefault()).toInstant());
+        } catch (IllegalArgumentException pe) {
             throw new IllegalArgumentException("Can't parse date from string ' + " + s + "'.");
         }
     }
@@ -99,22 +129,9 @@ public class OperatorsRealizationLibrary {
         }
     }
 
+    // Months of the period are added first, then days and time, as XSD adds durations to dates.
     private Constant sumDateAndPeriod(Constant left, Constant right) {
-        Date left_date = getDateFromString(left.getValue());
-        String period = right.getValue();
-        String[] period_parts_strs = period.split(":");
-        int[] period_parts = Arrays.stream(period_parts_strs).mapToInt(Integer::parseInt).toArray();
-
-        Calendar c = Calendar.getInstance();
-        c.setTime(left_date);
-        c.add(Calendar.YEAR, period_parts[0]);
-        c.add(Calendar.MONTH, period_parts[1]);
-        c.add(Calendar.DAY_OF_MONTH, period_parts[2]);
-        c.add(Calendar.HOUR, period_parts[3]);
-        c.add(Calendar.MINUTE, period_parts[4]);
-        c.add(Calendar.SECOND, period_parts[5]);
-
-        return new Constant(dateFormatter.format(c.getTime()), ExpressionType.DATE);
+        return Constant.ofDate(Dates.plus(left.getEpochSecond(), right.getPeriodMonths(), right.getPeriodSeconds()));
     }
 
     public Constant plusOperation(Expression left, Expression right) {
@@ -133,11 +150,9 @@ public class OperatorsRealizationLibrary {
 
         ExpressionType commonType = getCommonType(left, right);
         if (commonType == ExpressionType.INTEGER) {
-            Integer sum = Integer.parseInt(left_const.getValue()) + Integer.parseInt(right_const.getValue());
-            return new Constant(String.valueOf(sum), ExpressionType.INTEGER);
+            return Constant.of(left_const.getLongValue() + right_const.getLongValue());
         } else if (commonType == ExpressionType.DOUBLE) {
-            Double sum = Double.parseDouble(left_const.getValue()) + Double.parseDouble(right_const.getValue());
-            return new Constant(String.valueOf(sum), ExpressionType.DOUBLE);
+            return new Constant(left_const.getDoubleValue() + right_const.getDoubleValue());
         } else if (left_const.getType() == ExpressionType.DATE && right_const.getType() == ExpressionType.PERIOD) {
             return sumDateAndPeriod(left_const, right_const);
         } else {
@@ -147,21 +162,7 @@ public class OperatorsRealizationLibrary {
     }
 
     private Constant diffDateAndPeriod(Constant left, Constant right) {
-        Date left_date = getDateFromString(left.getValue());
-        String period = right.getValue();
-        String[] period_parts_strs = period.split(":");
-        int[] period_parts = Arrays.stream(period_parts_strs).mapToInt(Integer::parseInt).toArray();
-
-        Calendar c = Calendar.getInstance();
-        c.setTime(left_date);
-        c.add(Calendar.YEAR, -period_parts[0]);
-        c.add(Calendar.MONTH, -period_parts[1]);
-        c.add(Calendar.DAY_OF_MONTH, -period_parts[2]);
-        c.add(Calendar.HOUR, -period_parts[3]);
-        c.add(Calendar.MINUTE, -period_parts[4]);
-        c.add(Calendar.SECOND, -period_parts[5]);
-
-        return new Constant(dateFormatter.format(c.getTime()), ExpressionType.DATE);
+        return Constant.ofDate(Dates.plus(left.getEpochSecond(), -right.getPeriodMonths(), -right.getPeriodSeconds()));
     }
 
     public Constant minusOperation(Expression left, Expression right) {
@@ -180,11 +181,9 @@ public class OperatorsRealizationLibrary {
 
         ExpressionType commonType = getCommonType(left, right);
         if (commonType == ExpressionType.INTEGER) {
-            Integer sum = Integer.parseInt(left_const.getValue()) - Integer.parseInt(right_const.getValue());
-            return new Constant(String.valueOf(sum), ExpressionType.INTEGER);
+            return Constant.of(left_const.getLongValue() - right_const.getLongValue());
         } else if (commonType == ExpressionType.DOUBLE) {
-            Double sum = Double.parseDouble(left_const.getValue()) - Double.parseDouble(right_const.getValue());
-            return new Constant(String.valueOf(sum), ExpressionType.DOUBLE);
+            return new Constant(left_const.getDoubleValue() - right_const.getDoubleValue());
         } else if (left_const.getType() == ExpressionType.DATE && right_const.getType() == ExpressionType.PERIOD) {
             return diffDateAndPeriod(left_const, right_const);
         } else {
@@ -202,11 +201,9 @@ public class OperatorsRealizationLibrary {
         Constant right_const = (Constant) right;
         ExpressionType commonType = getCommonType(left, right);
         if (commonType == ExpressionType.INTEGER) {
-            Integer sum = Integer.parseInt(left_const.getValue()) * Integer.parseInt(right_const.getValue());
-            return new Constant(String.valueOf(sum), ExpressionType.INTEGER);
+            return Constant.of(left_const.getLongValue() * right_const.getLongValue());
         } else if (commonType == ExpressionType.DOUBLE) {
-            Double sum = Double.parseDouble(left_const.getValue()) * Double.parseDouble(right_const.getValue());
-            return new Constant(String.valueOf(sum), ExpressionType.DOUBLE);
+            return new Constant(left_const.getDoubleValue() * right_const.getDoubleValue());
         } else {
             throw new IllegalArgumentException("Can't do '*' operation with values of types " + left.getType() + " and "
                     + right.getType());
@@ -222,11 +219,9 @@ public class OperatorsRealizationLibrary {
         Constant right_const = (Constant) right;
         ExpressionType commonType = getCommonType(left, right);
         if (commonType == ExpressionType.INTEGER) {
-            Integer sum = Integer.parseInt(left_const.getValue()) / Integer.parseInt(right_const.getValue());
-            return new Constant(String.valueOf(sum), ExpressionType.INTEGER);
+            return Constant.of(left_const.getLongValue() / right_const.getLongValue());
         } else if (commonType == ExpressionType.DOUBLE) {
-            Double sum = Double.parseDouble(left_const.getValue()) / Double.parseDouble(right_const.getValue());
-            return new Constant(String.valueOf(sum), ExpressionType.DOUBLE);
+            return new Constant(left_const.getDoubleValue() / right_const.getDoubleValue());
         } else {
             throw new IllegalArgumentException("Can't do '/' operation with values of types " + left.getType() + " and "
                     + right.getType());
@@ -243,11 +238,7 @@ public class OperatorsRealizationLibrary {
         Constant right_const = (Constant) right;
         ExpressionType commonType = getCommonType(left, right);
         if (commonType == ExpressionType.INTEGER) {
-            if (Integer.parseInt(left_const.getValue()) > 0 && Integer.parseInt(right_const.getValue()) > 0) {
-                return new Constant("1", ExpressionType.INTEGER);
-            } else {
-                return new Constant("0", ExpressionType.INTEGER);
-            }
+            return Constant.of(left_const.getLongValue() > 0 && right_const.getLongValue() > 0);
         } else {
             throw new IllegalArgumentException("Can't do 'and' operation with values of types " + left.getType() + " and "
                     + right.getType());
@@ -263,17 +254,31 @@ public class OperatorsRealizationLibrary {
         Constant right_const = (Constant) right;
         ExpressionType commonType = getCommonType(left, right);
         if (commonType == ExpressionType.INTEGER) {
-            if (Integer.parseInt(left_const.getValue()) > 0 || Integer.parseInt(right_const.getValue()) > 0) {
-                return new Constant("1", ExpressionType.INTEGER);
-            } else {
-                return new Constant("0", ExpressionType.INTEGER);
-            }
+            return Constant.of(left_const.getLongValue() > 0 || right_const.getLongValue() > 0);
         } else {
             throw new IllegalArgumentException("Can't do 'or' operation with values of types " + left.getType() + " and "
                     + right.getType());
         }
     }
 
+    // Values of the same type are compared in their typed form, other values by their string form.
+    private boolean isEqual(Constant left, Constant right) {
+        if (left.getType() != right.getType()) {
+            return left.getValue().equals(right.getValue());
+        }
+        if (left.getType() == ExpressionType.INTEGER) {
+            return left.getLongValue() == right.getLongValue();
+        } else if (left.getType() == ExpressionType.DOUBLE) {
+            return left.getDoubleValue() == right.getDoubleValue();
+        } else if (left.getType() == ExpressionType.DATE) {
+            return left.getEpochSecond() == right.getEpochSecond();
+        } else if (left.getType() == ExpressionType.PERIOD) {
+            return left.getPeriodMonths() == right.getPeriodMonths()
+                    && left.getPeriodSeconds() == right.getPeriodSeconds();
+        }
+        return left.getValue().equals(right.getValue());
+    }
+
     public Constant eqOperation(Expression left, Expression right) {
         if (!(left instanceof Constant) || !(right instanceof Constant)) {
             throw new IllegalArgumentException("Can't sum values of types " + left.getType() + " and "
@@ -281,11 +286,7 @@ public class OperatorsRealizationLibrary {
         }
         Constant left_const = (Constant) left;
         Constant right_const = (Constant) right;
-        if (left_const.getValue().equals(right_const.getValue())) {
-            return new Constant("1", ExpressionType.INTEGER);
-        } else {
-            return new Constant("0", ExpressionType.INTEGER);
-        }
+        return Constant.of(isEqual(left_const, right_const));
     }
 
     public Constant notEqOperation(Expression left, Expression right) {
@@ -295,11 +296,7 @@ public class OperatorsRealizationLibrary {
         }
         Constant left_const = (Constant) left;
         Constant right_const = (Constant) right;
-        if (!left_const.getValue().equals(right_const.getValue())) {
-            return new Constant("1", ExpressionType.INTEGER);
-        } else {
-            return new Constant("0", ExpressionType.INTEGER);
-        }
+        return Constant.of(!isEqual(left_const, right_const));
     }
 
     public static Date getMaxDate(Date d1, Date d2) {
@@ -307,36 +304,7 @@ public class OperatorsRealizationLibrary {
     }
 
     public Constant maxOperation(Expression left, Expression right) {
-        if (right == null) {
-            throw new IllegalArgumentException("0 operands provided to max operator.");
-        }
-        if (right.getPartsCount() == 0) {
-            throw new IllegalArgumentException("Invalid operands provided to max operator.");
-        }
-        Constant mx_const = (Constant) right.at(0);
-        for (int i = 1; i < right.getPartsCount(); ++i) {
-            if (!(right.at(i) instanceof Constant)) {
-                throw new IllegalArgumentException("Can't do max operation with values of types " + mx_const.getType() + " and "
-                        + right.at(i).getType());
-            }
-            Constant left_const = mx_const;
-            Constant right_const = (Constant) right.at(i);
-            ExpressionType commonType = getCommonType(left_const, right_const);
-            if (commonType == ExpressionType.INTEGER) {
-                Integer mx = Integer.max(Integer.parseInt(left_const.getValue()), Integer.parseInt(right_const.getValue()));
-                mx_const = new Constant(String.valueOf(mx), ExpressionType.INTEGER);
-            } else if (commonType == ExpressionType.DOUBLE) {
-                Double mx = Double.max(Double.parseDouble(left_const.getValue()), Double.parseDouble(right_const.getValue()));
-                mx_const = new Constant(String.valueOf(mx), ExpressionType.DOUBLE);
-            } else if (commonType == ExpressionType.DATE) {
-                Date mx = getMaxDate((getDateFromString(left_const.getValue())), getDateFromString(right_const.getValue()));
-                mx_const = new Constant(dateFormatter.format(mx), ExpressionType.DATE);
-            } else {
-                throw new IllegalArgumentException("Can't do max operation with values of types " + left_const.getType() + " and "
-                        + right_const.at(i).getType());
-            }
-        }
-        return mx_const;
+        return extremum(Operator.Type.MAX, right, true);
     }
 
     public static Date getMinDate(Date d1, Date d2) {
@@ -344,36 +312,176 @@ public class OperatorsRealizationLibrary {
     }
 
     public Constant minOperation(Expression left, Expression right) {
-        if (right == null) {
-            throw new IllegalArgumentException("0 operands provided to min operator.");
+        return extremum(Operator.Type.MIN, right, false);
+    }
+
+    public Constant sumOperation(Expression left, Expression right) {
+        ExpressionType type = aggregateType(Operator.Type.SUM, right);
+        if (type == null) {
+            return Constant.of(0);
+        }
+        if (type == ExpressionType.INTEGER) {
+            long sum = 0;
+            for (int i = 0; i < argumentCount(right); ++i) {
+                Expression argument = argument(right, i);
+                if (argument instanceof Sequence) {
+                    Sequence sequence = (Sequence) argument;
+                    for (int j = 0; j < sequence.size(); ++j) {
+                        sum += sequence.getLong(j);
+                    }
+                } else {
+                    sum += ((Constant) argument).getLongValue();
+                }
+            }
+            return Constant.of(sum);
+        } else if (type == ExpressionType.DOUBLE) {
+            return new Constant(doubleSum(right));
         }
-        if (right.getPartsCount() == 0) {
-            throw new IllegalArgumentException("Invalid operands provided to min operator.");
+        throw new IllegalArgumentException("Can't do sum operation with values of type " + type + ".");
+    }
+
+    public Constant countOperation(Expression left, Expression right) {
+        return Constant.of(valueCount(right));
+    }
+
+    public Constant avgOperation(Expression left, Expression right) {
+        ExpressionType type = aggregateType(Operator.Type.AVG, right);
+        if (type == null) {
+            throw new IllegalArgumentException("No values provided to avg operator.");
         }
-        Constant mi_const = (Constant) right.at(0);
-        for (int i = 1; i < right.getPartsCount(); ++i) {
-            if (!(right.at(i) instanceof Constant)) {
-                throw new IllegalArgumentException("Can't do min operation with values of types " + mi_const.getType() + " and "
-                        + right.at(i).getType());
+        if (type != ExpressionType.INTEGER && type != ExpressionType.DOUBLE) {
+            throw new IllegalArgumentException("Can't do avg operation with values of type " + type + ".");
+        }
+        return new Constant(doubleSum(right) / valueCount(right));
+    }
+
+    public Constant existsOperation(Expression left, Expression right) {
+        return Constant.of(valueCount(right) > 0);
+    }
+
+    // Arguments of an aggregate function are a single value, a sequence or a list of both.
+    private int argumentCount(Expression arguments) {
+        if (arguments == null) {
+            return 0;
+        }
+        if (arguments instanceof Constant || arguments instanceof Sequence) {
+            return 1;
+        }
+        return arguments.getPartsCount();
+    }
+
+    private Expression argument(Expression arguments, int index) {
+        if (arguments instanceof Constant || arguments instanceof Sequence) {
+            return arguments;
+        }
+        return arguments.at(index);
+    }
+
+    private long valueCount(Expression arguments) {
+        long count = 0;
+        for (int i = 0; i < argumentCount(arguments); ++i) {
+            Expression argument = argument(arguments, i);
+            count += argument instanceof Sequence ? ((Sequence) argument).size() : 1;
+        }
+        return count;
+    }
+
+    // Common type of all values of the arguments or null if there are no values.
+    private ExpressionType aggregateType(Operator.Type operator, Expression arguments) {
+        ExpressionType type = null;
+        for (int i = 0; i < argumentCount(arguments); ++i) {
+            Expression argument = argument(arguments, i);
+            ExpressionType argumentType;
+            if (argument instanceof Sequence) {
+                if (((Sequence) argument).size() == 0) {
+                    continue;
+                }
+                argumentType = ((Sequence) argument).getElementType();
+            } else if (argument instanceof Constant) {
+                argumentType = argument.getType();
+            } else {
+                throw new IllegalArgumentException("Can't do " + operator.getStringType()
+                        + " operation with value of type " + argument.getType() + ".");
             }
-            Constant left_const = mi_const;
-            Constant right_const = (Constant) right.at(i);
-            ExpressionType commonType = getCommonType(left_const, right_const);
-            if (commonType == ExpressionType.INTEGER) {
-                Integer mi = Integer.min(Integer.parseInt(left_const.getValue()), Integer.parseInt(right_const.getValue()));
-                mi_const = new Constant(String.valueOf(mi), ExpressionType.INTEGER);
-            } else if (commonType == ExpressionType.DOUBLE) {
-                Double mi = Double.min(Double.parseDouble(left_const.getValue()), Double.parseDouble(right_const.getValue()));
-                mi_const = new Constant(String.valueOf(mi), ExpressionType.DOUBLE);
-            } else if (commonType == ExpressionType.DATE) {
-                Date mi = getMinDate((getDateFromString(left_const.getValue())), getDateFromString(right_const.getValue()));
-                mi_const = new Constant(String.valueOf(mi), ExpressionType.DATE);
+            if (type == null || type == argumentType) {
+                type = argumentType;
+            } else if ((type == ExpressionType.INTEGER || type == ExpressionType.DOUBLE)
+                    && (argumentType == ExpressionType.INTEGER || argumentType == ExpressionType.DOUBLE)) {
+                type = ExpressionType.DOUBLE;
             } else {
-                throw new IllegalArgumentException("Can't do min operation with values of types " + left_const.getType() + " and "
-                        + right_const.at(i).getType());
+                throw new IllegalArgumentException("Can't do " + operator.getStringType()
+                        + " operation with values of types " + type + " and " + argumentType + ".");
             }
         }
-        return mi_const;
+        return type;
+    }
+
+    private double doubleSum(Expression arguments) {
+        double sum = 0;
+        for (int i = 0; i < argumentCount(arguments); ++i) {
+            Expression argument = argument(arguments, i);
+            if (argument instanceof Sequence) {
+                Sequence sequence = (Sequence) argument;
+                for (int j = 0; j < sequence.size(); ++j) {
+                    sum += sequence.getDouble(j);
+                }
+            } else {
+                sum += ((Constant) argument).getDoubleValue();
+            }
+        }
+        return sum;
+    }
+
+    // Dates are compared as seconds from the epoch, integers as longs, mixed numbers as doubles.
+    private Constant extremum(Operator.Type operator, Expression arguments, boolean max) {
+        if (arguments == null) {
+            throw new IllegalArgumentException("0 operands provided to " + operator.getStringType() + " operator.");
+        }
+        if (arguments instanceof Constant) {
+            return (Constant) arguments;
+        }
+        ExpressionType type = aggregateType(operator, arguments);
+        if (type == null) {
+            throw new IllegalArgumentException("No values provided to " + operator.getStringType() + " operator.");
+        }
+        if (type == ExpressionType.INTEGER || type == ExpressionType.DATE) {
+            long best = max ? Long.MIN_VALUE : Long.MAX_VALUE;
+            for (int i = 0; i < argumentCount(arguments); ++i) {
+                Expression argument = argument(arguments, i);
+                if (argument instanceof Sequence) {
+                    Sequence sequence = (Sequence) argument;
+                    for (int j = 0; j < sequence.size(); ++j) {
+                        best = max ? Math.max(best, sequence.getLong(j)) : Math.min(best, sequence.getLong(j));
+                    }
+                } else {
+                    long value = type == ExpressionType.DATE
+                            ? ((Constant) argument).getEpochSecond()
+                            : ((Constant) argument).getLongValue();
+                    best = max ? Math.max(best, value) : Math.min(best, value);
+                }
+            }
+            if (type == ExpressionType.DATE) {
+                return Constant.ofDate(best);
+            }
+            return Constant.of(best);
+        } else if (type == ExpressionType.DOUBLE) {
+            double best = max ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+            for (int i = 0; i < argumentCount(arguments); ++i) {
+                Expression argument = argument(arguments, i);
+                if (argument instanceof Sequence) {
+                    Sequence sequence = (Sequence) argument;
+                    for (int j = 0; j < sequence.size(); ++j) {
+                        best = max ? Double.max(best, sequence.getDouble(j)) : Double.min(best, sequence.getDouble(j));
+                    }
+                } else {
+                    double value = ((Constant) argument).getDoubleValue();
+                    best = max ? Double.max(best, value) : Double.min(best, value);
+                }
+            }
+            return new Constant(best);
+        }
+        throw new IllegalArgumentException("Can't do " + operator.getStringType() + " operation with values of type "
+                + type + ".");
     }
 
     public Constant fnDayFromDateOperation(Expression left, Expression right) {
@@ -383,10 +491,7 @@ public class OperatorsRealizationLibrary {
         if (!(right instanceof Constant) || right.getType() != ExpressionType.DATE) {
             throw new IllegalArgumentException("Invalid operands provided to fn:day-from-date operator.");
         }
-        Date date = getDateFromString(((Constant) right).getValue());
-        Calendar calendar = Calendar.getInstance();
-        calendar.setTime(date);
-        return new Constant(String.valueOf(calendar.get(Calendar.DAY_OF_MONTH)), ExpressionType.INTEGER);
+        return Constant.of((long) Dates.getDay(((Constant) right).getEpochSecond()));
     }
 
     public Constant fnMonthFromDateOperation(Expression left, Expression right) {
@@ -396,10 +501,7 @@ public class OperatorsRealizationLibrary {
         if (!(right instanceof Constant) || right.getType() != ExpressionType.DATE) {
             throw new IllegalArgumentException("Invalid operands provided to fn:month-from-date operator.");
         }
-        Date date = getDateFromString(((Constant) right).getValue());
-        Calendar calendar = Calendar.getInstance();
-        calendar.setTime(date);
-        return new Constant(String.valueOf(calendar.get(Calendar.MONTH) + 1), ExpressionType.INTEGER);
+        return Constant.of((long) Dates.getMonth(((Constant) right).getEpochSecond()));
     }
 
     public Constant fnYearFromDateOperation(Expression left, Expression right) {
@@ -409,10 +511,7 @@ public class OperatorsRealizationLibrary {
         if (!(right instanceof Constant) || right.getType() != ExpressionType.DATE) {
             throw new IllegalArgumentException("Invalid operands provided to fn:year-from-date operator.");
         }
-        Date date = getDateFromString(((Constant) right).getValue());
-        Calendar calendar = Calendar.getInstance();
-        calendar.setTime(date);
-        return new Constant(String.valueOf(calendar.get(Calendar.YEAR)), ExpressionType.INTEGER);
+        return Constant.of(Dates.getYear(((Constant) right).getEpochSecond()));
     }
 
     public Constant fnConcatOperation(Expression left, Expression right) {
@@ -442,6 +541,9 @@ public class OperatorsRealizationLibrary {
         if (right.getType() != ExpressionType.STRING && right.getType() != ExpressionType.DATE) {
             throw new IllegalArgumentException("Invalid operand provided to xsd:date operator.");
         }
+        if (right.getType() == ExpressionType.DATE) {
+            return (Constant) right;
+        }
         return new Constant(((Constant) right).getValue(), ExpressionType.DATE);
     }
 
@@ -452,29 +554,22 @@ public class OperatorsRealizationLibrary {
         if (!(right instanceof Constant)) {
             throw new IllegalArgumentException("Invalid operand provided to xsd:string operator.");
         }
+        if (right.getType() == ExpressionType.STRING) {
+            return (Constant) right;
+        }
         return new Constant(((Constant) right).getValue(), ExpressionType.STRING);
     }
 
     public String parseDayTimeDuration(String duration) {
-        String regex = "P(?:(\\d+)D)?(?:T(?:(\\d+)H)?(?:(\\d+)M)?(?:(\\d+)S)?)?";
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(duration);
-
-        int days = 0, hours = 0, minutes = 0, seconds = 0;
-
-        if (matcher.matches()) {
-            String daysStr = matcher.group(1);
-            String hoursStr = matcher.group(2);
-            String minutesStr = matcher.group(3);
-            String secondsStr = matcher.group(4);
+        return dayTimeDurationOf(duration).getValue();
+    }
 
-            days = (daysStr != null) ? Integer.parseInt(daysStr) : 0;
-            hours = (hoursStr != null) ? Integer.parseInt(hoursStr) : 0;
-            minutes = (minutesStr != null) ? Integer.parseInt(minutesStr) : 0;
-            seconds = (secondsStr != null) ? Integer.parseInt(secondsStr) : 0;
+    private Constant dayTimeDurationOf(String duration) {
+        try {
+            return Constant.ofPeriod(0, Durations.parseDayTime(duration));
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            throw new IllegalArgumentException("Invalid operand provided to xsd:dayTimeDuration operator.");
         }
-
-        return String.format("0:0:%d:%d:%d:%d", days, hours, minutes, seconds);
     }
 
     public Constant xsdDayTimeDurationOperation(Expression left, Expression right) {
@@ -484,26 +579,19 @@ public class OperatorsRealizationLibrary {
         if (!(right instanceof Constant) || !(right.getType() == ExpressionType.STRING)) {
             throw new IllegalArgumentException("Invalid operand provided to xsd:dayTimeDuration operator.");
         }
-        String period = parseDayTimeDuration(((Constant) right).getValue());
-        return new Constant(period, ExpressionType.PERIOD);
+        return dayTimeDurationOf(((Constant) right).getValue());
     }
 
     public String parseYearMonthDuration(String duration) {
-        String regex = "P(?:(\\d+)Y)?(?:(\\d+)M)?";
-        Pattern pattern = Pattern.compile(regex);
-        Matcher matcher = pattern.matcher(duration);
-
-        int years = 0, months = 0;
-
-        if (matcher.matches()) {
-            String yearsStr = matcher.group(1);
-            String monthsStr = matcher.group(2);
+        return yearMonthDurationOf(duration).getValue();
+    }
 
-            years = (yearsStr != null) ? Integer.parseInt(yearsStr) : 0;
-            months = (monthsStr != null) ? Integer.parseInt(monthsStr) : 0;
+    private Constant yearMonthDurationOf(String duration) {
+        try {
+            return Constant.ofPeriod(Durations.parseYearMonth(duration), 0);
+        } catch (IllegalArgumentException | ArithmeticException e) {
+            throw new IllegalArgumentException("Invalid operand provided to xsd:yearMonthDuration operator.");
         }
-
-        return String.format("%d:%d:0:0:0:0", years, months);
     }
 
     public Constant xsdYearMonthDurationOperation(Expression left, Expression right) {
@@ -513,7 +601,6 @@ public class OperatorsRealizationLibrary {
         if (!(right instanceof Constant) || !(right.getType() == ExpressionType.STRING)) {
             throw new IllegalArgumentException("Invalid operand provided to xsd:dayTimeDuration operator.");
         }
-        String period = parseYearMonthDuration(((Constant) right).getValue());
-        return new Constant(period, ExpressionType.PERIOD);
+        return yearMonthDurationOf(((Constant) right).getValue());
     }
 }
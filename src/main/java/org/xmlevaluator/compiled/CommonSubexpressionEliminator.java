@@ -0,0 +1,117 @@
+package org.xmlevaluator.compiled;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Merges equal subexpressions of several roots into one node and wraps every node used more than once (XPath
+ * references, variables, repeated subexpressions or whole roots) into a {@link SharedNode} with its own slot, so a
+ * calculator computes it only once per document. Shared nodes already present in the roots are numbered anew.
+ */
+public class CommonSubexpressionEliminator {
+    private final Node[] roots;
+    private final int sharedNodeCount;
+
+    CommonSubexpressionEliminator(Node[] roots) {
+        Interner interner = new Interner();
+        Node[] internedRoots = new Node[roots.length];
+        for (int i = 0; i < roots.length; ++i) {
+            internedRoots[i] = interner.rewrite(roots[i]);
+            interner.countUse(internedRoots[i]);
+        }
+
+        Sharer sharer = new Sharer(interner.uses);
+        this.roots = new Node[roots.length];
+        for (int i = 0; i < roots.length; ++i) {
+            this.roots[i] = sharer.rewrite(internedRoots[i]);
+        }
+        this.sharedNodeCount = sharer.slots.size();
+    }
+
+    public static CompiledExpression eliminate(CompiledExpression expression) {
+        CommonSubexpressionEliminator eliminator = new CommonSubexpressionEliminator(new Node[]{expression.getRoot()});
+        return new CompiledExpression(eliminator.getRoot(0), eliminator.getSharedNodeCount());
+    }
+
+    Node getRoot(int index) {
+        return roots[index];
+    }
+
+    int getSharedNodeCount() {
+        return sharedNodeCount;
+    }
+
+    // Replaces equal nodes with one instance and counts how many parents reference each of them.
+    private static class Interner extends NodeRewriter {
+        private final Map<Node, Node> canonical = new HashMap<>();
+        private final Map<Node, Integer> uses = new IdentityHashMap<>();
+
+        @Override
+        protected Node visit(Node node) {
+            if (node instanceof SharedNode) {
+                return ((SharedNode) node).getNode();
+            }
+            Node existing = canonical.putIfAbsent(node, node);
+            Node result = existing == null ? node : existing;
+            if (existing == null) {
+                countChildren(result);
+            }
+            return result;
+        }
+
+        private void countChildren(Node node) {
+            if (node instanceof OperatorNode) {
+                countUse(((OperatorNode) node).getLeft());
+                countUse(((OperatorNode) node).getRight());
+            } else if (node instanceof ConditionNode) {
+                countUse(((ConditionNode) node).getIfNode());
+                countUse(((ConditionNode) node).getThenNode());
+                countUse(((ConditionNode) node).getElseNode());
+            } else if (node instanceof ListNode) {
+                ListNode list = (ListNode) node;
+                for (int i = 0; i < list.size(); ++i) {
+                    countUse(list.at(i));
+                }
+            }
+        }
+
+        private void countUse(Node node) {
+            if (node != null) {
+                uses.merge(node, 1, Integer::sum);
+            }
+        }
+    }
+
+    private static class Sharer extends NodeRewriter {
+        private final Map<Node, Integer> uses;
+        private final Map<Node, Node> slots = new IdentityHashMap<>();
+        private final Map<Node, Node> rewritten = new IdentityHashMap<>();
+
+        Sharer(Map<Node, Integer> uses) {
+            this.uses = uses;
+        }
+
+        @Override
+        public Node rewrite(Node node) {
+            if (node == null) {
+                return null;
+            }
+            Node result = rewritten.get(node);
+            if (result == null) {
+                result = super.rewrite(node);
+                if (uses.getOrDefault(node, 0) > 1 && !(node instanceof ConstantNode)) {
+                    result = new SharedNode(result, slots.size());
+                    slots.put(node, result);
+                }
+                rewritten.put(node, result);
+            }
+            return result;
+        }
+
+        @Override
+        protected Node visit(Node node) {
+            return node;
+        }
+    }
+}
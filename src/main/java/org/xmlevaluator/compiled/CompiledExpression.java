@@ -0,0 +1,52 @@
+package org.xmlevaluator.compiled;
+
+/**
+ * Expression with operator precedence already resolved. Built once by {@code TreeProvider.compile} and evaluated by
+ * {@code Calculator.evaluate(CompiledExpression)} as many times as needed.
+ */
+public class CompiledExpression {
+    private final Node root;
+    private final int sharedNodeCount;
+    private final VariableLayout variableLayout;
+
+    public CompiledExpression(Node root) {
+        this(root, 0);
+    }
+
+    // Slots of shared nodes are numbered from 0 to sharedNodeCount - 1.
+    public CompiledExpression(Node root, int sharedNodeCount) {
+        this(root, sharedNodeCount, VariableLayout.empty());
+    }
+
+    public CompiledExpression(Node root, int sharedNodeCount, VariableLayout variableLayout) {
+        this.root = root;
+        this.sharedNodeCount = sharedNodeCount;
+        this.variableLayout = variableLayout;
+    }
+
+    public Node getRoot() {
+        return root;
+    }
+
+    public int getSharedNodeCount() {
+        return sharedNodeCount;
+    }
+
+    // Slots of the variables of the expression, see VariableFrame.
+    public VariableLayout getVariableLayout() {
+        return variableLayout;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        CompiledExpression that = (CompiledExpression) o;
+        return root.equals(that.root);
+    }
+
+    @Override
+    public int hashCode() {
+        return root.hashCode();
+    }
+}
@@ -0,0 +1,43 @@
+package org.xmlevaluator.compiled;
+
+import java.util.Objects;
+
+public final class ConditionNode extends Node {
+    private final Node ifNode;
+    private final Node thenNode;
+    private final Node elseNode;
+    private final int hash;
+
+    public ConditionNode(Node ifNode, Node thenNode, Node elseNode) {
+        super(Kind.CONDITION);
+        this.ifNode = ifNode;
+        this.thenNode = thenNode;
+        this.elseNode = elseNode;
+        this.hash = Objects.hash(ifNode, thenNode, elseNode);
+    }
+
+    public Node getIfNode() {
+        return ifNode;
+    }
+
+    public Node getThenNode() {
+        return thenNode;
+    }
+
+    public Node getElseNode() {
+        return elseNode;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ConditionNode that = (ConditionNode) o;
+        return hash == that.hash && ifNode.equals(that.ifNode) && thenNode.equals(that.thenNode) && elseNode.equals(that.elseNode);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,132 @@
+package org.xmlevaluator.compiled;
+
+import org.xmlevaluator.OperatorsRealizationLibrary;
+import org.xmlevaluator.dto.Constant;
+import org.xmlevaluator.dto.Expression;
+import org.xmlevaluator.dto.ExpressionType;
+import org.xmlevaluator.dto.Operator;
+
+import java.util.function.BiFunction;
+
+/**
+ * Evaluates subtrees which depend neither on variables nor on XPath once, at compile time. Operators applied to
+ * constants are replaced by their results, conditions with a constant {@code if} are replaced by the chosen branch,
+ * and {@code and}/{@code or} decided by a constant left operand are replaced by their result.
+ * Operations failing on their constant operands are left as they are, so the error is still reported by
+ * {@code Calculator} when the expression is evaluated.
+ */
+public class ConstantFolder extends NodeRewriter {
+    private final OperatorsRealizationLibrary library;
+
+    public ConstantFolder(OperatorsRealizationLibrary library) {
+        this.library = library;
+    }
+
+    @Override
+    protected Node visit(Node node) {
+        if (node instanceof OperatorNode) {
+            return foldOperator((OperatorNode) node);
+        }
+        if (node instanceof ConditionNode) {
+            return foldCondition((ConditionNode) node);
+        }
+        if (node instanceof SharedNode && ((SharedNode) node).getNode() instanceof ConstantNode) {
+            return ((SharedNode) node).getNode();
+        }
+        return node;
+    }
+
+    private Node foldOperator(OperatorNode operator) {
+        Node shortCircuited = foldShortCircuit(operator);
+        if (shortCircuited != null) {
+            return shortCircuited;
+        }
+        BiFunction<Expression, Expression, Constant> realization = library.getRealization(operator.getOperatorType());
+        if (realization == null || !isConstant(operator.getLeft()) || !isConstant(operator.getRight())) {
+            return operator;
+        }
+        Constant result;
+        try {
+            result = realization.apply(valueOf(operator.getLeft()), valueOf(operator.getRight()));
+        } catch (RuntimeException e) {
+            return operator;
+        }
+        result.freeze();
+        return new ConstantNode(result);
+    }
+
+    // 'and' with a false constant on the left and 'or' with a true one don't depend on the right operand.
+    private Node foldShortCircuit(OperatorNode operator) {
+        Operator.Type type = operator.getOperatorType();
+        if ((type != Operator.Type.AND && type != Operator.Type.OR) || !(operator.getLeft() instanceof ConstantNode)) {
+            return null;
+        }
+        Constant left = ((ConstantNode) operator.getLeft()).getConstant();
+        if (left.getType() != ExpressionType.INTEGER) {
+            return null;
+        }
+        boolean leftValue;
+        try {
+            leftValue = left.getLongValue() > 0;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (type == Operator.Type.AND && !leftValue) {
+            return new ConstantNode(Constant.of(false));
+        }
+        if (type == Operator.Type.OR && leftValue) {
+            return new ConstantNode(Constant.of(true));
+        }
+        return null;
+    }
+
+    private Node foldCondition(ConditionNode condition) {
+        if (!(condition.getIfNode() instanceof ConstantNode)) {
+            return condition;
+        }
+        Constant ifConstant = ((ConstantNode) condition.getIfNode()).getConstant();
+        if (ifConstant.getType() != ExpressionType.INTEGER) {
+            return condition;
+        }
+        long ifValue;
+        try {
+            ifValue = ifConstant.getLongValue();
+        } catch (IllegalArgumentException e) {
+            return condition;
+        }
+        return ifValue == 1 ? condition.getThenNode() : condition.getElseNode();
+    }
+
+    // Absent operands count as constants: the realization receives null for them anyway.
+    private boolean isConstant(Node node) {
+        if (node == null || node instanceof ConstantNode) {
+            return true;
+        }
+        if (node instanceof ListNode) {
+            ListNode list = (ListNode) node;
+            for (int i = 0; i < list.size(); ++i) {
+                if (!(list.at(i) instanceof ConstantNode)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    // Same values as Calculator.evaluate(Node) gives for constant nodes.
+    private Expression valueOf(Node node) {
+        if (node == null) {
+            return null;
+        }
+        if (node instanceof ConstantNode) {
+            return ((ConstantNode) node).getConstant();
+        }
+        ListNode list = (ListNode) node;
+        Expression values = new Expression();
+        for (int i = 0; i < list.size(); ++i) {
+            values.addPart(((ConstantNode) list.at(i)).getConstant());
+        }
+        return values;
+    }
+}
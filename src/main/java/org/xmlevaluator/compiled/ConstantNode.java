@@ -0,0 +1,31 @@
+package org.xmlevaluator.compiled;
+
+import org.xmlevaluator.dto.Constant;
+
+public final class ConstantNode extends Node {
+    private final Constant constant;
+    private final int hash;
+
+    public ConstantNode(Constant constant) {
+        super(Kind.CONSTANT);
+        this.constant = constant;
+        this.hash = constant.typedHashCode() * 31 + constant.getType().hashCode();
+    }
+
+    public Constant getConstant() {
+        return constant;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ConstantNode that = (ConstantNode) o;
+        return hash == that.hash && constant.getType() == that.constant.getType() && constant.equals(that.constant);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,141 @@
+package org.xmlevaluator.compiled;
+
+import org.xmlevaluator.dto.*;
+
+import java.util.ArrayList;
+
+/**
+ * Lowers a parsed {@link Tree} into a {@link CompiledExpression}. Operators are applied in the same order as
+ * {@code Calculator.evaluateExpression} applies them: the leftmost operator with the lowest priority value first,
+ * binary operators take both neighbours, functions take only the right one.
+ */
+public class ExpressionCompiler {
+
+    public CompiledExpression compile(Tree tree) {
+        return new CompiledExpression(compile(tree.getRoot()));
+    }
+
+    public Node compile(Expression expression) {
+        if (expression == null) {
+            return new ConstantNode(Constant.of(0));
+        }
+        if (expression.getPartsCount() == 1) {
+            expression = expression.at(0);
+        }
+        if (expression instanceof Constant) {
+            return new ConstantNode((Constant) expression);
+        }
+        if (expression instanceof Variable) {
+            return new VariableNode(((Variable) expression).getName());
+        }
+        if (expression instanceof XPathElement) {
+            return new XPathNode(((XPathElement) expression).getPath());
+        }
+        if (expression instanceof Condition) {
+            return compileCondition((Condition) expression);
+        }
+        if (expression instanceof Operator || expression.getPartsCount() == 0) {
+            throw new IllegalArgumentException("Couldn't evaluate expression.");
+        }
+        return compileParts(expression);
+    }
+
+    private Node compileCondition(Condition condition) {
+        if (condition.getIfExpression() == null || condition.getElseExpression() == null
+                || condition.getThenExpression() == null) {
+            throw new IllegalArgumentException("Condition statement is not full.");
+        }
+        return new ConditionNode(compile(condition.getIfExpression()), compile(condition.getThenExpression()),
+                compile(condition.getElseExpression()));
+    }
+
+    // Items are either compiled nodes or operators which were not applied yet.
+    private Node compileParts(Expression expression) {
+        ArrayList<Object> items = new ArrayList<>(expression.getPartsCount());
+        for (int i = 0; i < expression.getPartsCount(); ++i) {
+            Expression part = expression.at(i);
+            if (part instanceof Operator) {
+                items.add(part);
+            } else {
+                items.add(compile(part));
+            }
+        }
+
+        while (true) {
+            int nextOperationIndex = getNextOperationIndex(items);
+            if (nextOperationIndex == -1) {
+                break;
+            }
+            Operator.Type operatorType = ((Operator) items.get(nextOperationIndex)).getOperatorType();
+            Node left = null;
+            Node right = null;
+            boolean hasLeft = operatorType.getIsBinary() && nextOperationIndex - 1 >= 0;
+            boolean hasRight = nextOperationIndex + 1 < items.size();
+            if (hasLeft) {
+                left = asOperand(items.get(nextOperationIndex - 1));
+            }
+            if (hasRight) {
+                right = asOperand(items.get(nextOperationIndex + 1));
+                if (operatorType.getIsAggregate()) {
+                    right = asSequenceArguments(right);
+                }
+            }
+
+            Node result = new OperatorNode(operatorType, left, right);
+            if (hasRight) {
+                items.remove(nextOperationIndex + 1);
+            }
+            items.set(nextOperationIndex, result);
+            if (hasLeft) {
+                items.remove(nextOperationIndex - 1);
+            }
+        }
+
+        if (items.size() == 1) {
+            return (Node) items.get(0);
+        }
+        Node[] nodes = new Node[items.size()];
+        for (int i = 0; i < nodes.length; ++i) {
+            nodes[i] = (Node) items.get(i);
+        }
+        return new ListNode(nodes);
+    }
+
+    private Node asOperand(Object item) {
+        if (item instanceof Operator) {
+            throw new IllegalArgumentException("Couldn't evaluate expression.");
+        }
+        return (Node) item;
+    }
+
+    // XPath arguments of aggregate functions are read as sequences of all matched nodes.
+    private Node asSequenceArguments(Node arguments) {
+        if (arguments instanceof XPathNode) {
+            return new XPathNode(((XPathNode) arguments).getPath(), true);
+        }
+        if (arguments instanceof ListNode) {
+            ListNode list = (ListNode) arguments;
+            Node[] items = new Node[list.size()];
+            for (int i = 0; i < items.length; ++i) {
+                items[i] = list.at(i) instanceof XPathNode ? asSequenceArguments(list.at(i)) : list.at(i);
+            }
+            return new ListNode(items);
+        }
+        return arguments;
+    }
+
+    private int getNextOperationIndex(ArrayList<Object> items) {
+        int max_index = -1, max_priority = 100;
+        for (int i = 0; i < items.size(); ++i) {
+            if (items.get(i) instanceof Operator) {
+                Operator operator = (Operator) items.get(i);
+                int current_priority;
+                if ((current_priority = operator.getOperatorType().getPriority()) < max_priority) {
+                    max_index = i;
+                    max_priority = current_priority;
+                }
+            }
+        }
+        return max_index;
+    }
+}
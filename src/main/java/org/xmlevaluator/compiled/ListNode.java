@@ -0,0 +1,41 @@
+package org.xmlevaluator.compiled;
+
+import java.util.Arrays;
+
+/**
+ * Several values left side by side after all operators were applied, e.g. the arguments of {@code max(1, 2)}.
+ */
+public final class ListNode extends Node {
+    private final Node[] items;
+    private final int hash;
+
+    public ListNode(Node[] items) {
+        super(Kind.LIST);
+        this.items = items.clone();
+        this.hash = Arrays.hashCode(this.items);
+    }
+
+    public int size() {
+        return items.length;
+    }
+
+    public Node at(int index) {
+        if (index < 0 || index >= items.length) {
+            throw new IndexOutOfBoundsException("Index is out of [0.." + (items.length - 1) + "] range.");
+        }
+        return items[index];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ListNode that = (ListNode) o;
+        return hash == that.hash && Arrays.equals(items, that.items);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
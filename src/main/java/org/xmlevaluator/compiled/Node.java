@@ -0,0 +1,30 @@
+package org.xmlevaluator.compiled;
+
+/**
+ * A node of a compiled expression. Nodes are immutable, so a compiled expression can be evaluated any number of
+ * times and shared between calculators. The set of node classes is closed, and {@link #getKind()} tells them apart
+ * with a switch.
+ */
+public abstract sealed class Node permits ConstantNode, VariableNode, XPathNode, OperatorNode, ConditionNode, ListNode,
+        SharedNode {
+
+    public enum Kind {
+        CONSTANT,
+        VARIABLE,
+        XPATH,
+        OPERATOR,
+        CONDITION,
+        LIST,
+        SHARED
+    }
+
+    private final Kind kind;
+
+    Node(Kind kind) {
+        this.kind = kind;
+    }
+
+    public final Kind getKind() {
+        return kind;
+    }
+}
@@ -0,0 +1,63 @@
+package org.xmlevaluator.compiled;
+
+/**
+ * Bottom-up rewriting of compiled nodes. Children are rewritten first, then {@link #visit(Node)} is called for the
+ * node rebuilt on top of them. Nodes whose children didn't change are kept as they are.
+ */
+public abstract class NodeRewriter {
+
+    public CompiledExpression rewrite(CompiledExpression expression) {
+        Node root = rewrite(expression.getRoot());
+        return root == expression.getRoot()
+                ? expression
+                : new CompiledExpression(root, expression.getSharedNodeCount(), expression.getVariableLayout());
+    }
+
+    public Node rewrite(Node node) {
+        if (node == null) {
+            return null;
+        }
+        return visit(rewriteChildren(node));
+    }
+
+    protected abstract Node visit(Node node);
+
+    protected Node rewriteChildren(Node node) {
+        if (node instanceof OperatorNode) {
+            OperatorNode operator = (OperatorNode) node;
+            Node left = rewrite(operator.getLeft());
+            Node right = rewrite(operator.getRight());
+            if (left == operator.getLeft() && right == operator.getRight()) {
+                return node;
+            }
+            return new OperatorNode(operator.getOperatorType(), left, right);
+        }
+        if (node instanceof ConditionNode) {
+            ConditionNode condition = (ConditionNode) node;
+            Node ifNode = rewrite(condition.getIfNode());
+            Node thenNode = rewrite(condition.getThenNode());
+            Node elseNode = rewrite(condition.getElseNode());
+            if (ifNode == condition.getIfNode() && thenNode == condition.getThenNode()
+                    && elseNode == condition.getElseNode()) {
+                return node;
+            }
+            return new ConditionNode(ifNode, thenNode, elseNode);
+        }
+        if (node instanceof ListNode) {
+            ListNode list = (ListNode) node;
+            Node[] items = new Node[list.size()];
+            boolean changed = false;
+            for (int i = 0; i < items.length; ++i) {
+                items[i] = rewrite(list.at(i));
+                changed |= items[i] != list.at(i);
+            }
+            return changed ? new ListNode(items) : node;
+        }
+        if (node instanceof SharedNode) {
+            SharedNode shared = (SharedNode) node;
+            Node inner = rewrite(shared.getNode());
+            return inner == shared.getNode() ? node : new SharedNode(inner, shared.getSlot());
+        }
+        return node;
+    }
+}
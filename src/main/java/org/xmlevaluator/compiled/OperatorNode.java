@@ -0,0 +1,50 @@
+package org.xmlevaluator.compiled;
+
+import org.xmlevaluator.dto.Operator;
+
+import java.util.Objects;
+
+/**
+ * Application of an operator or a function. Functions have no left operand; either operand may be absent when the
+ * source expression didn't provide it, in which case the realization receives {@code null}.
+ */
+public final class OperatorNode extends Node {
+    private final Operator.Type type;
+    private final Node left;
+    private final Node right;
+    // Nodes are immutable, so the hash of the subtree is computed once, from the hashes kept by the children.
+    private final int hash;
+
+    public OperatorNode(Operator.Type type, Node left, Node right) {
+        super(Kind.OPERATOR);
+        this.type = type;
+        this.left = left;
+        this.right = right;
+        this.hash = Objects.hash(type, left, right);
+    }
+
+    public Operator.Type getOperatorType() {
+        return type;
+    }
+
+    public Node getLeft() {
+        return left;
+    }
+
+    public Node getRight() {
+        return right;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        OperatorNode that = (OperatorNode) o;
+        return hash == that.hash && type == that.type && Objects.equals(left, that.left) && Objects.equals(right, that.right);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
@@ -0,0 +1,51 @@
+package org.xmlevaluator.compiled;
+
+import java.util.List;
+
+/**
+ * Compiled expressions evaluated together against one document. Common subexpressions of all rules are shared by
+ * {@link CommonSubexpressionEliminator}, so a batch evaluation computes each of them only once. All rules share one
+ * {@link VariableLayout}.
+ */
+public class RuleSet {
+    private final CompiledExpression[] rules;
+    private final int sharedNodeCount;
+    private final VariableLayout variableLayout;
+
+    public RuleSet(List<CompiledExpression> expressions) {
+        Node[] roots = new Node[expressions.size()];
+        for (int i = 0; i < roots.length; ++i) {
+            roots[i] = expressions.get(i).getRoot();
+        }
+        CommonSubexpressionEliminator eliminator = new CommonSubexpressionEliminator(roots);
+        for (int i = 0; i < roots.length; ++i) {
+            roots[i] = eliminator.getRoot(i);
+        }
+        VariableResolver resolver = new VariableResolver(roots);
+        variableLayout = resolver.getLayout();
+        rules = new CompiledExpression[roots.length];
+        for (int i = 0; i < roots.length; ++i) {
+            rules[i] = new CompiledExpression(resolver.getRoot(i), 0, variableLayout);
+        }
+        sharedNodeCount = eliminator.getSharedNodeCount();
+    }
+
+    public int size() {
+        return rules.length;
+    }
+
+    public CompiledExpression get(int index) {
+        if (index < 0 || index >= rules.length) {
+            throw new IndexOutOfBoundsException("Index is out of [0.." + (rules.length - 1) + "] range.");
+        }
+        return rules[index];
+    }
+
+    public int getSharedNodeCount() {
+        return sharedNodeCount;
+    }
+
+    public VariableLayout getVariableLayout() {
+        return variableLayout;
+    }
+}
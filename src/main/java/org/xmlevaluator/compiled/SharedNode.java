@@ -0,0 +1,41 @@
+package org.xmlevaluator.compiled;
+
+import java.util.Objects;
+
+/**
+ * Node referenced from several places. While a calculator evaluates a {@link RuleSet} or a {@link CompiledExpression}
+ * against a document, the value of the wrapped node is computed once and kept in the given slot.
+ */
+public final class SharedNode extends Node {
+    private final Node node;
+    private final int slot;
+    private final int hash;
+
+    public SharedNode(Node node, int slot) {
+        super(Kind.SHARED);
+        this.node = node;
+        this.slot = slot;
+        this.hash = Objects.hash(node, slot);
+    }
+
+    public Node getNode() {
+        return node;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SharedNode that = (SharedNode) o;
+        return hash == that.hash && slot == that.slot && node.equals(that.node);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+}
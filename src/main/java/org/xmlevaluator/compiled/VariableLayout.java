@@ -0,0 +1,45 @@
+package org.xmlevaluator.compiled;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Slots of the variables referenced by a {@link CompiledExpression} or a {@link RuleSet}, numbered from 0 in order of
+ * the first reference. Values of variables are bound to the slots once per evaluation, so evaluation reads them by
+ * index instead of looking names up.
+ */
+public class VariableLayout {
+    private static final VariableLayout EMPTY = new VariableLayout(List.of());
+
+    private final String[] names;
+    private final Map<String, Integer> slots = new HashMap<>();
+
+    public VariableLayout(List<String> names) {
+        this.names = names.toArray(new String[0]);
+        for (int i = 0; i < this.names.length; ++i) {
+            if (slots.putIfAbsent(this.names[i], i) != null) {
+                throw new IllegalArgumentException("Variable $" + this.names[i] + " has several slots.");
+            }
+        }
+    }
+
+    // Layout of expressions whose variables have no slots.
+    public static VariableLayout empty() {
+        return EMPTY;
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    public String getName(int slot) {
+        return names[slot];
+    }
+
+    // Slot of the variable or -1 if the layout doesn't have it.
+    public int getSlot(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+}
@@ -0,0 +1,42 @@
+package org.xmlevaluator.compiled;
+
+/**
+ * Reference to a variable. After {@link VariableResolver} the node also knows the slot of the variable in the
+ * {@link VariableLayout} of its expression; the slot is not a part of equality.
+ */
+public final class VariableNode extends Node {
+    private final String name;
+    private final int slot;
+
+    public VariableNode(String name) {
+        this(name, -1);
+    }
+
+    public VariableNode(String name, int slot) {
+        super(Kind.VARIABLE);
+        this.name = name;
+        this.slot = slot;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    // Slot in the layout of the expression or -1 if the variable was not resolved.
+    public int getSlot() {
+        return slot;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        VariableNode that = (VariableNode) o;
+        return name.equals(that.name);
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
+}
@@ -0,0 +1,70 @@
+package org.xmlevaluator.compiled;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Gives every variable referenced by several roots a slot of one {@link VariableLayout}: variable nodes are replaced
+ * by nodes carrying their slot.
+ */
+public class VariableResolver {
+    private final Node[] roots;
+    private final VariableLayout layout;
+
+    VariableResolver(Node[] roots) {
+        Slotter slotter = new Slotter();
+        this.roots = new Node[roots.length];
+        for (int i = 0; i < roots.length; ++i) {
+            this.roots[i] = slotter.rewrite(roots[i]);
+        }
+        this.layout = new VariableLayout(new ArrayList<>(slotter.slots.keySet()));
+    }
+
+    public static CompiledExpression resolve(CompiledExpression expression) {
+        VariableResolver resolver = new VariableResolver(new Node[]{expression.getRoot()});
+        return new CompiledExpression(resolver.getRoot(0), expression.getSharedNodeCount(), resolver.getLayout());
+    }
+
+    Node getRoot(int index) {
+        return roots[index];
+    }
+
+    VariableLayout getLayout() {
+        return layout;
+    }
+
+    // Nodes reachable from several places are rewritten once, so the roots stay shared as they were.
+    private static class Slotter extends NodeRewriter {
+        private final Map<String, Integer> slots = new LinkedHashMap<>();
+        private final Map<Node, Node> rewritten = new IdentityHashMap<>();
+
+        @Override
+        public Node rewrite(Node node) {
+            if (node == null) {
+                return null;
+            }
+            Node result = rewritten.get(node);
+            if (result == null) {
+                result = super.rewrite(node);
+                rewritten.put(node, result);
+            }
+            return result;
+        }
+
+        @Override
+        protected Node visit(Node node) {
+            if (!(node instanceof VariableNode)) {
+                return node;
+            }
+            String name = ((VariableNode) node).getName();
+            Integer slot = slots.get(name);
+            if (slot == null) {
+                slot = slots.size();
+                slots.put(name, slot);
+            }
+            return new VariableNode(name, slot);
+        }
+    }
+}
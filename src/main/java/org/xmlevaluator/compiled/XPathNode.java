@@ -0,0 +1,41 @@
+package org.xmlevaluator.compiled;
+
+/**
+ * XPath reference. Its value is the text of the first matched node, or a {@code Sequence} of all matched nodes when
+ * the reference is an argument of an aggregate function.
+ */
+public final class XPathNode extends Node {
+    private final String path;
+    private final boolean sequence;
+
+    public XPathNode(String path) {
+        this(path, false);
+    }
+
+    public XPathNode(String path, boolean sequence) {
+        super(Kind.XPATH);
+        this.path = path;
+        this.sequence = sequence;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public boolean isSequence() {
+        return sequence;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        XPathNode that = (XPathNode) o;
+        return sequence == that.sequence && path.equals(that.path);
+    }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode() * 31 + (sequence ? 1 : 0);
+    }
+}
@@ -1,6 +1,8 @@
 package org.xmlevaluator.dto;
 
-public class Condition extends Expression {
+import java.util.Objects;
+
+public final class Condition extends Expression {
     private final Expression ifExpression;
     private final Expression thenExpression;
     private final Expression elseExpression;
@@ -23,6 +25,14 @@ public class Condition extends Expression {
         return elseExpression;
     }
 
+    @Override
+    public void freeze() {
+        super.freeze();
+        ifExpression.freeze();
+        thenExpression.freeze();
+        elseExpression.freeze();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -32,4 +42,9 @@ public class Condition extends Expression {
                 && thenExpression.equals(that.thenExpression)
                 && elseExpression.equals(that.elseExpression);
     }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(ifExpression, thenExpression, elseExpression);
+    }
 }
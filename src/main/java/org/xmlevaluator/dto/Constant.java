@@ -1,18 +1,204 @@
 package org.xmlevaluator.dto;
 
-public class Constant extends Expression {
-    private final String value;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.Period;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Constant value. The value is kept in its typed form (long, double, date, period) so operators don't have to parse
+ * strings; the string form is produced only when {@link #getValue()} is called. Dates are kept as seconds from the
+ * epoch, see {@link Dates}, and periods as months and seconds, see {@link Durations}.
+ */
+public final class Constant extends Expression {
+    public static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    // Shared instances of the integers most results are: booleans, counts, days and months.
+    private static final int SMALL_MIN = -128;
+    private static final int SMALL_MAX = 1023;
+    private static final Constant[] SMALL_INTEGERS = new Constant[SMALL_MAX - SMALL_MIN + 1];
+
+    static {
+        for (int i = 0; i < SMALL_INTEGERS.length; ++i) {
+            SMALL_INTEGERS[i] = new Constant((long) (SMALL_MIN + i));
+        }
+    }
+
+    // Filled lazily for constants built from typed values. Racing threads compute the same string.
+    private String value;
+    private final boolean parsed;
+    // INTEGER values, DATE values as seconds from the epoch, or seconds of PERIOD values.
+    private final long longValue;
+    private final double doubleValue;
+    private final long periodMonths;
 
     public Constant(String value, ExpressionType expressionType) {
+        super(expressionType, true);
         if (expressionType == ExpressionType.DATE && value.length() == 10) {
             value += " 00:00:00";
         }
         this.value = value;
-        this.setType(expressionType);
+
+        boolean parsed = true;
+        long longValue = 0;
+        double doubleValue = 0;
+        long periodMonths = 0;
+        try {
+            if (expressionType == ExpressionType.INTEGER) {
+                longValue = Long.parseLong(value);
+                doubleValue = longValue;
+            } else if (expressionType == ExpressionType.DOUBLE) {
+                doubleValue = Double.parseDouble(value);
+            } else if (expressionType == ExpressionType.DATE) {
+                longValue = Dates.parse(value);
+            } else if (expressionType == ExpressionType.PERIOD) {
+                periodMonths = Durations.parseMonths(value);
+                longValue = Durations.parseSeconds(value);
+            }
+        } catch (IllegalArgumentException | NullPointerException e) {
+            parsed = false;
+        }
+        this.parsed = parsed;
+        this.longValue = longValue;
+        this.doubleValue = doubleValue;
+        this.periodMonths = periodMonths;
+    }
+
+    public Constant(long value) {
+        super(ExpressionType.INTEGER, true);
+        this.parsed = true;
+        this.longValue = value;
+        this.doubleValue = value;
+        this.periodMonths = 0;
+    }
+
+    public Constant(double value) {
+        super(ExpressionType.DOUBLE, true);
+        this.parsed = true;
+        this.longValue = 0;
+        this.doubleValue = value;
+        this.periodMonths = 0;
+    }
+
+    public Constant(LocalDateTime value) {
+        this(value.toEpochSecond(ZoneOffset.UTC), ExpressionType.DATE);
+    }
+
+    private Constant(long value, ExpressionType type) {
+        super(type, true);
+        this.parsed = true;
+        this.longValue = value;
+        this.doubleValue = 0;
+        this.periodMonths = 0;
+    }
+
+    // Same as new Constant(value), but small values are shared.
+    public static Constant of(long value) {
+        if (value >= SMALL_MIN && value <= SMALL_MAX) {
+            return SMALL_INTEGERS[(int) value - SMALL_MIN];
+        }
+        return new Constant(value);
+    }
+
+    // Booleans are the integers 1 and 0.
+    public static Constant of(boolean value) {
+        return SMALL_INTEGERS[(value ? 1 : 0) - SMALL_MIN];
+    }
+
+    // Date given as seconds from the epoch.
+    public static Constant ofDate(long epochSecond) {
+        return new Constant(epochSecond, ExpressionType.DATE);
+    }
+
+    public Constant(Period period, Duration time) {
+        this(period.toTotalMonths(), period.getDays() * 86400L + time.getSeconds());
+    }
+
+    private Constant(long months, long seconds) {
+        super(ExpressionType.PERIOD, true);
+        this.parsed = true;
+        this.longValue = seconds;
+        this.doubleValue = 0;
+        this.periodMonths = months;
+    }
+
+    // Period of months and seconds.
+    public static Constant ofPeriod(long months, long seconds) {
+        return new Constant(months, seconds);
     }
 
     public String getValue() {
-        return value;
+        String result = value;
+        if (result == null && getType() != ExpressionType.STRING) {
+            result = format();
+            value = result;
+        }
+        return result;
+    }
+
+    private String format() {
+        if (getType() == ExpressionType.INTEGER) {
+            return String.valueOf(longValue);
+        } else if (getType() == ExpressionType.DOUBLE) {
+            return String.valueOf(doubleValue);
+        } else if (getType() == ExpressionType.DATE) {
+            return Dates.format(longValue);
+        } else {
+            return Durations.format(periodMonths, longValue);
+        }
+    }
+
+    private void checkParsed(ExpressionType expected) {
+        if (!parsed || getType() != expected) {
+            throw new IllegalArgumentException("Can't get " + expected + " value from '" + getValue() + "' of type "
+                    + getType() + ".");
+        }
+    }
+
+    public long getLongValue() {
+        checkParsed(ExpressionType.INTEGER);
+        return longValue;
+    }
+
+    // Integers are widened to double.
+    public double getDoubleValue() {
+        if (getType() == ExpressionType.INTEGER) {
+            checkParsed(ExpressionType.INTEGER);
+        } else {
+            checkParsed(ExpressionType.DOUBLE);
+        }
+        return doubleValue;
+    }
+
+    public LocalDateTime getDateValue() {
+        return LocalDateTime.ofEpochSecond(getEpochSecond(), 0, ZoneOffset.UTC);
+    }
+
+    // Date as seconds from the epoch.
+    public long getEpochSecond() {
+        checkParsed(ExpressionType.DATE);
+        return longValue;
+    }
+
+    // Years, months and days of a period.
+    public Period getPeriodValue() {
+        return Period.of((int) (getPeriodMonths() / 12), (int) (periodMonths % 12), (int) (longValue / 86400));
+    }
+
+    // Hours, minutes and seconds of a period.
+    public Duration getPeriodTimeValue() {
+        return Duration.ofSeconds(getPeriodSeconds() % 86400);
+    }
+
+    public long getPeriodMonths() {
+        checkParsed(ExpressionType.PERIOD);
+        return periodMonths;
+    }
+
+    public long getPeriodSeconds() {
+        checkParsed(ExpressionType.PERIOD);
+        return longValue;
     }
 
     @Override
@@ -20,6 +206,25 @@ public class Constant extends Expression {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Constant that = (Constant) o;
-        return value.equals(that.value);
+        return getValue().equals(that.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+        return getValue().hashCode();
+    }
+
+    // Hash of the typed value, so the value of a constant built from it isn't formatted. Strings and values that
+    // couldn't be parsed are hashed by their text.
+    public int typedHashCode() {
+        if (!parsed || getType() == ExpressionType.STRING) {
+            return value.hashCode();
+        }
+        if (getType() == ExpressionType.DOUBLE) {
+            return Double.hashCode(doubleValue);
+        } else if (getType() == ExpressionType.PERIOD) {
+            return Long.hashCode(periodMonths) * 31 + Long.hashCode(longValue);
+        }
+        return Long.hashCode(longValue);
     }
-}
\ No newline at end of file
+}
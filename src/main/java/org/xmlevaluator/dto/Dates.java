@@ -0,0 +1,177 @@
+package org.xmlevaluator.dto;
+
+/**
+ * Date arithmetic on dates packed into longs: a date is the number of seconds from 1970-01-01 00:00:00 in the
+ * proleptic Gregorian calendar. Dates have no zone, so no zone rules are ever looked up, and nothing is allocated
+ * except by {@link #format(long)}. Parsing and formatting follow {@link Constant#DATE_FORMATTER}.
+ */
+public final class Dates {
+    private static final int SECONDS_PER_DAY = 86400;
+    // Days from 0000-03-01 to 1970-01-01.
+    private static final long DAYS_0000_TO_1970 = 719468;
+    private static final long DAYS_PER_400_YEARS = 146097;
+
+    private Dates() {
+    }
+
+    // Parses "yyyy-MM-dd HH:mm:ss" or "yyyy-MM-dd". A day past the end of the month is moved to its last day.
+    public static long parse(String s) {
+        if (s.length() != 10 && s.length() != 19) {
+            throw new IllegalArgumentException("Can't parse date from '" + s + "'.");
+        }
+        int year = digits(s, 0, 4);
+        int month = digits(s, 5, 2);
+        int day = digits(s, 8, 2);
+        int hour = 0, minute = 0, second = 0;
+        if (s.charAt(4) != '-' || s.charAt(7) != '-') {
+            throw new IllegalArgumentException("Can't parse date from '" + s + "'.");
+        }
+        if (s.length() == 19) {
+            if (s.charAt(10) != ' ' || s.charAt(13) != ':' || s.charAt(16) != ':') {
+                throw new IllegalArgumentException("Can't parse date from '" + s + "'.");
+            }
+            hour = digits(s, 11, 2);
+            minute = digits(s, 14, 2);
+            second = digits(s, 17, 2);
+        }
+        boolean endOfDay = hour == 24 && minute == 0 && second == 0;
+        if (year < 1 || month < 1 || month > 12 || day < 1 || day > 31 || (hour > 23 && !endOfDay) || minute > 59
+                || second > 59) {
+            throw new IllegalArgumentException("Can't parse date from '" + s + "'.");
+        }
+        day = Math.min(day, lengthOfMonth(year, month));
+        return of(year, month, day) + (long) hour * 3600 + minute * 60 + second;
+    }
+
+    private static int digits(String s, int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; ++i) {
+            char c = s.charAt(i);
+            if (c < '0' || c > '9') {
+                throw new IllegalArgumentException("Can't parse date from '" + s + "'.");
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    // Midnight of the given day.
+    public static long of(long year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = Math.floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return (era * DAYS_PER_400_YEARS + dayOfEra - DAYS_0000_TO_1970) * SECONDS_PER_DAY;
+    }
+
+    public static long getYear(long date) {
+        long dayOfEra = dayOfEra(date);
+        long yearOfEra = yearOfEra(dayOfEra);
+        long year = yearOfEra + era(date) * 400;
+        return monthOf(dayOfEra, yearOfEra) <= 2 ? year + 1 : year;
+    }
+
+    public static int getMonth(long date) {
+        long dayOfEra = dayOfEra(date);
+        return monthOf(dayOfEra, yearOfEra(dayOfEra));
+    }
+
+    public static int getDay(long date) {
+        long dayOfEra = dayOfEra(date);
+        long dayOfYear = dayOfYear(dayOfEra, yearOfEra(dayOfEra));
+        return (int) (dayOfYear - (153 * shiftedMonth(dayOfYear) + 2) / 5 + 1);
+    }
+
+    public static int getSecondOfDay(long date) {
+        return (int) Math.floorMod(date, (long) SECONDS_PER_DAY);
+    }
+
+    // Eras of 400 years start on March 1, so leap days end them.
+    private static long era(long date) {
+        return Math.floorDiv(Math.floorDiv(date, SECONDS_PER_DAY) + DAYS_0000_TO_1970, DAYS_PER_400_YEARS);
+    }
+
+    private static long dayOfEra(long date) {
+        return Math.floorMod(Math.floorDiv(date, SECONDS_PER_DAY) + DAYS_0000_TO_1970, DAYS_PER_400_YEARS);
+    }
+
+    private static long yearOfEra(long dayOfEra) {
+        return (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+    }
+
+    private static long dayOfYear(long dayOfEra, long yearOfEra) {
+        return dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+    }
+
+    // Months counted from March.
+    private static long shiftedMonth(long dayOfYear) {
+        return (5 * dayOfYear + 2) / 153;
+    }
+
+    private static int monthOf(long dayOfEra, long yearOfEra) {
+        long shiftedMonth = shiftedMonth(dayOfYear(dayOfEra, yearOfEra));
+        return (int) (shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9);
+    }
+
+    public static boolean isLeapYear(long year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    public static int lengthOfMonth(long year, int month) {
+        if (month == 2) {
+            return isLeapYear(year) ? 29 : 28;
+        }
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+
+    // Adds months as XSD does: the day is kept unless the new month is shorter, then it is its last day.
+    public static long plusMonths(long date, long months) {
+        if (months == 0) {
+            return date;
+        }
+        long year = getYear(date);
+        int month = getMonth(date);
+        int day = getDay(date);
+        long totalMonths = year * 12 + (month - 1) + months;
+        long newYear = Math.floorDiv(totalMonths, 12);
+        int newMonth = Math.floorMod(totalMonths, 12) + 1;
+        return of(newYear, newMonth, Math.min(day, lengthOfMonth(newYear, newMonth))) + getSecondOfDay(date);
+    }
+
+    // Adds a duration of months and seconds, months first.
+    public static long plus(long date, long months, long seconds) {
+        return plusMonths(date, months) + seconds;
+    }
+
+    // "yyyy-MM-dd HH:mm:ss"; years before 1 are written as years of the era before Christ, years after 9999 with '+'.
+    public static String format(long date) {
+        long year = getYear(date);
+        int secondOfDay = getSecondOfDay(date);
+        StringBuilder result = new StringBuilder(20);
+        if (year > 9999) {
+            result.append('+').append(year);
+        } else {
+            long shownYear = year >= 1 ? year : 1 - year;
+            for (long power = 1000; power > 1 && shownYear < power; power /= 10) {
+                result.append('0');
+            }
+            result.append(shownYear);
+        }
+        result.append('-');
+        appendTwoDigits(result, getMonth(date));
+        result.append('-');
+        appendTwoDigits(result, getDay(date));
+        result.append(' ');
+        appendTwoDigits(result, secondOfDay / 3600);
+        result.append(':');
+        appendTwoDigits(result, secondOfDay / 60 % 60);
+        result.append(':');
+        appendTwoDigits(result, secondOfDay % 60);
+        return result.toString();
+    }
+
+    private static void appendTwoDigits(StringBuilder result, int value) {
+        result.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+}
@@ -0,0 +1,153 @@
+package org.xmlevaluator.dto;
+
+/**
+ * Durations as XSD sees them: a number of months and a number of seconds, which can't be converted into each other.
+ * The ISO 8601 forms of {@code xsd:yearMonthDuration} and {@code xsd:dayTimeDuration} are read by hand, without
+ * regular expressions or intermediate strings.
+ */
+public final class Durations {
+    private static final int SECONDS_PER_DAY = 86400;
+
+    private Durations() {
+    }
+
+    // Months of "[-]PnYnM", at least one of the parts present.
+    public static long parseYearMonth(String s) {
+        int position = start(s);
+        long months = 0;
+        boolean empty = true;
+        char lastDesignator = 'P';
+        while (position < s.length()) {
+            int end = numberEnd(s, position);
+            if (end == position || end == s.length()) {
+                throw invalid(s);
+            }
+            long number = number(s, position, end);
+            char designator = s.charAt(end);
+            if (designator == 'Y' && lastDesignator == 'P') {
+                months = Math.addExact(months, Math.multiplyExact(number, 12));
+            } else if (designator == 'M' && (lastDesignator == 'P' || lastDesignator == 'Y')) {
+                months = Math.addExact(months, number);
+            } else {
+                throw invalid(s);
+            }
+            lastDesignator = designator;
+            empty = false;
+            position = end + 1;
+        }
+        if (empty) {
+            throw invalid(s);
+        }
+        return s.charAt(0) == '-' ? -months : months;
+    }
+
+    // Seconds of "[-]PnDTnHnMnS", at least one of the parts present and at least one after 'T'.
+    public static long parseDayTime(String s) {
+        int position = start(s);
+        long seconds = 0;
+        boolean empty = true;
+        boolean time = false;
+        char lastDesignator = 'P';
+        while (position < s.length()) {
+            if (s.charAt(position) == 'T' && !time) {
+                if (position + 1 == s.length()) {
+                    throw invalid(s);
+                }
+                time = true;
+                lastDesignator = 'T';
+                ++position;
+                continue;
+            }
+            int end = numberEnd(s, position);
+            if (end == position || end == s.length()) {
+                throw invalid(s);
+            }
+            long number = number(s, position, end);
+            char designator = s.charAt(end);
+            long unit;
+            if (designator == 'D' && !time && lastDesignator == 'P') {
+                unit = SECONDS_PER_DAY;
+            } else if (designator == 'H' && lastDesignator == 'T') {
+                unit = 3600;
+            } else if (designator == 'M' && time && (lastDesignator == 'T' || lastDesignator == 'H')) {
+                unit = 60;
+            } else if (designator == 'S' && time && lastDesignator != 'S') {
+                unit = 1;
+            } else {
+                throw invalid(s);
+            }
+            seconds = Math.addExact(seconds, Math.multiplyExact(number, unit));
+            lastDesignator = designator;
+            empty = false;
+            position = end + 1;
+        }
+        if (empty) {
+            throw invalid(s);
+        }
+        return s.charAt(0) == '-' ? -seconds : seconds;
+    }
+
+    // Position after "[-]P".
+    private static int start(String s) {
+        int position = !s.isEmpty() && s.charAt(0) == '-' ? 1 : 0;
+        if (position >= s.length() || s.charAt(position) != 'P') {
+            throw invalid(s);
+        }
+        return position + 1;
+    }
+
+    private static int numberEnd(String s, int from) {
+        int end = from;
+        while (end < s.length() && s.charAt(end) >= '0' && s.charAt(end) <= '9') {
+            ++end;
+        }
+        return end;
+    }
+
+    private static long number(String s, int from, int to) {
+        // 18 digits always fit into a long.
+        if (to - from > 18) {
+            throw invalid(s);
+        }
+        long number = 0;
+        for (int i = from; i < to; ++i) {
+            number = number * 10 + (s.charAt(i) - '0');
+        }
+        return number;
+    }
+
+    private static IllegalArgumentException invalid(String s) {
+        return new IllegalArgumentException("Can't parse duration from '" + s + "'.");
+    }
+
+    // Months and seconds of "years:months:days:hours:minutes:seconds", the string form of PERIOD constants.
+    public static long parseMonths(String s) {
+        return field(s, 0) * 12 + field(s, 1);
+    }
+
+    public static long parseSeconds(String s) {
+        return field(s, 2) * SECONDS_PER_DAY + field(s, 3) * 3600 + field(s, 4) * 60 + field(s, 5);
+    }
+
+    // Field with the given index of the colon separated form; it must have exactly six fields.
+    private static long field(String s, int index) {
+        int from = 0;
+        for (int i = 0; i < index; ++i) {
+            from = s.indexOf(':', from) + 1;
+            if (from == 0) {
+                throw new NumberFormatException("Can't parse period from '" + s + "'.");
+            }
+        }
+        int to = s.indexOf(':', from);
+        if ((to == -1) != (index == 5)) {
+            throw new NumberFormatException("Can't parse period from '" + s + "'.");
+        }
+        return Long.parseLong(s, from, to == -1 ? s.length() : to, 10);
+    }
+
+    // "years:months:days:hours:minutes:seconds", negative durations have all fields negative.
+    public static String format(long months, long seconds) {
+        return (months / 12) + ":" + (months % 12) + ":" + (seconds / SECONDS_PER_DAY) + ":"
+                + (seconds % SECONDS_PER_DAY / 3600) + ":" + (seconds % 3600 / 60) + ":" + (seconds % 60);
+    }
+}
@@ -1,32 +1,53 @@
 package org.xmlevaluator.dto;
 
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
 
-public class Expression {
+/**
+ * A node of a parsed expression: a list of operands and operators, or a leaf. Parts are kept in an array which is
+ * allocated on the first added part, so leaves carry no child storage; {@link #freeze()} trims the array to the exact
+ * number of parts. The set of node classes is closed and all of them are final, so telling them apart with
+ * {@code instanceof} is a single class check.
+ */
+public sealed class Expression permits Constant, Variable, XPathElement, Operator, Condition, Sequence {
+    private static final Expression[] NO_PARTS = new Expression[0];
 
-    private ArrayList<Expression> parts;
+    private Expression[] parts;
+    private int partsCount;
     private ExpressionType expressionType;
+    private boolean frozen;
 
     public Expression() {
-        parts = new ArrayList<>();
-        expressionType = ExpressionType.INTEGER;
+        this(ExpressionType.INTEGER);
     }
 
     public Expression(ExpressionType expressionType) {
-        parts = new ArrayList<>();
+        parts = NO_PARTS;
         this.expressionType = expressionType;
     }
 
-    public Integer getPartsCount() {
-        return parts.size();
+    // Leaves have no parts, so they are created frozen and can be shared by any number of trees.
+    Expression(ExpressionType expressionType, boolean frozen) {
+        this(expressionType);
+        this.frozen = frozen;
+    }
+
+    // Expression which is going to get the given number of parts, so they are stored without copying.
+    public Expression(int capacity) {
+        parts = capacity == 0 ? NO_PARTS : new Expression[capacity];
+        expressionType = ExpressionType.INTEGER;
+    }
+
+    public int getPartsCount() {
+        return partsCount;
     }
 
     public Expression at(int index) {
-        if (index < 0 || index >= parts.size()) {
-            throw new IndexOutOfBoundsException("Index is out of [0.." + (parts.size() - 1) + "] range.");
+        if (index < 0 || index >= partsCount) {
+            throw new IndexOutOfBoundsException("Index is out of [0.." + (partsCount - 1) + "] range.");
         }
-        return parts.get(index);
+        return parts[index];
     }
 
     public ExpressionType getType() {
@@ -34,19 +55,59 @@ public class Expression {
     }
 
     public void addPart(Expression expression) {
-        parts.add(expression);
+        checkNotFrozen();
+        if (partsCount == parts.length) {
+            // Operators of the parser have at most two operands, so most lists have three parts.
+            parts = Arrays.copyOf(parts, partsCount == 0 ? 3 : partsCount * 2);
+        }
+        parts[partsCount++] = expression;
     }
 
     public void setType(ExpressionType expressionType) {
+        checkNotFrozen();
         this.expressionType = expressionType;
     }
 
+    // Forbids any further changes of this expression and all its parts, so it can be shared.
+    public void freeze() {
+        if (frozen) {
+            return;
+        }
+        frozen = true;
+        if (partsCount < parts.length) {
+            parts = partsCount == 0 ? NO_PARTS : Arrays.copyOf(parts, partsCount);
+        }
+        for (Expression part : parts) {
+            part.freeze();
+        }
+    }
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkNotFrozen() {
+        if (frozen) {
+            throw new UnsupportedOperationException("Expression can't be changed after it was frozen.");
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         Expression that = (Expression) o;
-        return parts.equals(that.parts) &&
+        return Arrays.equals(parts, 0, partsCount, that.parts, 0, that.partsCount) &&
                 expressionType.equals(that.expressionType);
     }
+
+    // Structural, like equals: don't change an expression while it is a key of a hash table.
+    @Override
+    public int hashCode() {
+        int result = 1;
+        for (int i = 0; i < partsCount; ++i) {
+            result = 31 * result + Objects.hashCode(parts[i]);
+        }
+        return 31 * result + expressionType.hashCode();
+    }
 }
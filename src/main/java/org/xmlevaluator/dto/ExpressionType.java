@@ -5,5 +5,6 @@ public enum ExpressionType {
     DOUBLE,
     STRING,
     DATE,
-    PERIOD
+    PERIOD,
+    SEQUENCE
 }
\ No newline at end of file
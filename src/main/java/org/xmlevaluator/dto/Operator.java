@@ -2,20 +2,23 @@ package org.xmlevaluator.dto;
 
 import java.util.ArrayList;
 
-public class Operator extends Expression {
+public final class Operator extends Expression {
     public enum Type {
         PLUS("+", 2, true),
         MINUS("-", 2, true),
         MULTIPLY("*", 1, true),
         DIVIDE("/", 1, true),
-        EXISTS("exists", 0, false),
+        EXISTS("exists", 0, false, true),
         AND("and", 4, true),
         OR("or", 5, true),
         EQ("eq", 3, true),
         EQUAL("=", 3, true),
         NOTEQUAL("!=", 3, true),
-        MAX("max", 0, false),
-        MIN("min", 0, false),
+        MAX("max", 0, false, true),
+        MIN("min", 0, false, true),
+        SUM("sum", 0, false, true),
+        COUNT("count", 0, false, true),
+        AVG("avg", 0, false, true),
         FN_DAY_FROM_DATE("fn:day-from-date", 0, false),
         FN_MONTH_FROM_DATE("fn:month-from-date", 0, false),
         FN_YEAR_FROM_DATE("fn:year-from-date", 0, false),
@@ -27,27 +30,38 @@ public class Operator extends Expression {
         ;
 
         private String stringType;
-        private Integer priority;
-        private Boolean isBinary;
+        private int priority;
+        private boolean isBinary;
+        private boolean isAggregate;
 
-        private Type(String stringType, Integer priority, Boolean isBinary) {
+        private Type(String stringType, int priority, boolean isBinary) {
+            this(stringType, priority, isBinary, false);
+        }
+
+        private Type(String stringType, int priority, boolean isBinary, boolean isAggregate) {
             this.stringType = stringType;
             this.priority = priority;
             this.isBinary = isBinary;
+            this.isAggregate = isAggregate;
         }
 
         public String getStringType() {
             return stringType;
         }
 
-        public Integer getPriority() {
+        public int getPriority() {
             return priority;
         }
 
-        public Boolean getIsBinary() {
+        public boolean getIsBinary() {
             return isBinary;
         }
 
+        // XPath arguments of aggregate functions give all matched nodes as a Sequence instead of the first one.
+        public boolean getIsAggregate() {
+            return isAggregate;
+        }
+
         public static ArrayList<String> getAllStringTypes() {
             ArrayList<String> result = new ArrayList<>();
             int index = 0;
@@ -61,13 +75,27 @@ public class Operator extends Expression {
 
     ;
 
-    private Type type;
+    private static final Operator[] CANONICAL = new Operator[Type.values().length];
+
+    static {
+        for (Type type : Type.values()) {
+            CANONICAL[type.ordinal()] = new Operator(type);
+        }
+    }
+
+    private final Type type;
 //    private static final Map<Type, Action>
 
     public Operator(Type type) {
+        super(ExpressionType.INTEGER, true);
         this.type = type;
     }
 
+    // Operators are immutable, so trees share one instance per type instead of one per occurrence.
+    public static Operator of(Type type) {
+        return CANONICAL[type.ordinal()];
+    }
+
     public Type getOperatorType() {
         return type;
     }
@@ -79,6 +107,11 @@ public class Operator extends Expression {
         Operator that = (Operator) o;
         return type.equals(that.type);
     }
+
+    @Override
+    public int hashCode() {
+        return type.hashCode();
+    }
 }
 
 // +, -, *, /, exists, fn:day-from-date, max, xsd:date, xsd:yearMonthDuration, xsd:dayTimeDuration,
@@ -0,0 +1,126 @@
+package org.xmlevaluator.dto;
+
+import java.util.Arrays;
+
+/**
+ * Text values of all nodes matched by an XPath, given to aggregate functions. The type of the elements is found once:
+ * when all values are integers, numbers or dates they are kept in a primitive array, so aggregates run over them in a
+ * single loop; otherwise the elements are strings.
+ */
+public final class Sequence extends Expression {
+    private final String[] values;
+    private final ExpressionType elementType;
+    // INTEGER values, or DATE values as seconds from the epoch, see Dates.
+    private final long[] longValues;
+    private final double[] doubleValues;
+
+    public Sequence(String[] values) {
+        super(ExpressionType.SEQUENCE, true);
+        this.values = values;
+
+        long[] longValues = parseIntegers(values);
+        double[] doubleValues = null;
+        ExpressionType elementType = ExpressionType.INTEGER;
+        if (longValues == null) {
+            doubleValues = parseDoubles(values);
+            elementType = ExpressionType.DOUBLE;
+        }
+        if (longValues == null && doubleValues == null) {
+            longValues = parseDates(values);
+            elementType = longValues == null ? ExpressionType.STRING : ExpressionType.DATE;
+        }
+        this.elementType = elementType;
+        this.longValues = longValues;
+        this.doubleValues = doubleValues;
+    }
+
+    private static long[] parseIntegers(String[] values) {
+        long[] result = new long[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            String value = values[i].strip();
+            int start = value.startsWith("-") ? 1 : 0;
+            // 18 digits always fit into a long.
+            if (value.length() == start || value.length() - start > 18) {
+                return null;
+            }
+            long number = 0;
+            for (int j = start; j < value.length(); ++j) {
+                char c = value.charAt(j);
+                if (c < '0' || c > '9') {
+                    return null;
+                }
+                number = number * 10 + (c - '0');
+            }
+            result[i] = start == 1 ? -number : number;
+        }
+        return result;
+    }
+
+    private static double[] parseDoubles(String[] values) {
+        double[] result = new double[values.length];
+        try {
+            for (int i = 0; i < values.length; ++i) {
+                result[i] = Double.parseDouble(values[i].strip());
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return result;
+    }
+
+    private static long[] parseDates(String[] values) {
+        long[] result = new long[values.length];
+        try {
+            for (int i = 0; i < values.length; ++i) {
+                result[i] = Dates.parse(values[i].strip());
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return result;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public ExpressionType getElementType() {
+        return elementType;
+    }
+
+    public String getValue(int index) {
+        return values[index];
+    }
+
+    // Integers, or dates as seconds from the epoch.
+    public long getLong(int index) {
+        if (elementType != ExpressionType.INTEGER && elementType != ExpressionType.DATE) {
+            throw new IllegalArgumentException("Can't get INTEGER value from a sequence of " + elementType + ".");
+        }
+        return longValues[index];
+    }
+
+    // Integers are widened to double.
+    public double getDouble(int index) {
+        if (elementType == ExpressionType.INTEGER) {
+            return longValues[index];
+        }
+        if (elementType != ExpressionType.DOUBLE) {
+            throw new IllegalArgumentException("Can't get DOUBLE value from a sequence of " + elementType + ".");
+        }
+        return doubleValues[index];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        Sequence that = (Sequence) o;
+        return Arrays.equals(values, that.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(values);
+    }
+}
@@ -18,4 +18,9 @@ public class Tree {
         Tree that = (Tree) o;
         return root.equals(that.root);
     }
+
+    @Override
+    public int hashCode() {
+        return root.hashCode();
+    }
 }
\ No newline at end of file
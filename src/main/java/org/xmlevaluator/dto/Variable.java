@@ -1,9 +1,10 @@
 package org.xmlevaluator.dto;
 
-public class Variable extends Expression {
+public final class Variable extends Expression {
     private final String name;
 
     public Variable(String name) {
+        super(ExpressionType.INTEGER, true);
         this.name = name;
     }
 
@@ -18,4 +19,9 @@ public class Variable extends Expression {
         Variable that = (Variable) o;
         return name.equals(that.name);
     }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
+    }
 }
\ No newline at end of file
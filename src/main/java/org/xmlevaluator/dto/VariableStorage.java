@@ -4,29 +4,27 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class VariableStorage {
-    private Map<String, String> value;
-    private Map<String, ExpressionType> type;
+    private Map<String, Constant> value;
 
     public VariableStorage() {
         value = new HashMap<>();
-        type = new HashMap<>();
     }
 
     public void pushVariable(String name, String value, ExpressionType type) {
-        if (type == ExpressionType.DATE) {
-            if (value.length() == 10) {
-                value += " 00:00:00";
-            }
-        }
-        this.value.put(name, value);
-        this.type.put(name, type);
+        this.value.put(name, new Constant(value, type));
     }
 
-    public String getValue(String name) {
+    public Constant getConstant(String name) {
         return this.value.get(name);
     }
 
+    public String getValue(String name) {
+        Constant constant = this.value.get(name);
+        return constant == null ? null : constant.getValue();
+    }
+
     public ExpressionType getType(String name) {
-        return this.type.get(name);
+        Constant constant = this.value.get(name);
+        return constant == null ? null : constant.getType();
     }
 }
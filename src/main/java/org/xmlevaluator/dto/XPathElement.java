@@ -1,9 +1,10 @@
 package org.xmlevaluator.dto;
 
-public class XPathElement extends Expression {
+public final class XPathElement extends Expression {
     private final String path;
 
     public XPathElement(String path) {
+        super(ExpressionType.INTEGER, true);
         this.path = path;
     }
 
@@ -18,4 +19,9 @@ public class XPathElement extends Expression {
         XPathElement that = (XPathElement) o;
         return path.equals(that.path);
     }
+
+    @Override
+    public int hashCode() {
+        return path.hashCode();
+    }
 }
@@ -1,48 +1,112 @@
 package org.xmlevaluator.evaluator;
 
 import org.w3c.dom.Document;
-import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
 import org.xmlevaluator.OperatorsRealizationLibrary;
+import org.xmlevaluator.compiled.*;
 import org.xmlevaluator.dto.*;
 
-import javax.xml.xpath.XPath;
 import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
 import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.ZoneId;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
+/**
+ * Evaluates expressions against one set of variables and one XML document.
+ * <p>
+ * A calculator is not thread-safe: DOM documents may not be read by several threads at once, so each worker thread
+ * should use its own calculator (they are cheap to create). Everything a calculator only reads can be shared between
+ * threads: the {@link OperatorsRealizationLibrary}, trees and {@link CompiledExpression}s, a {@link VariableFrame} and
+ * a {@link VariableStorage} which is no longer modified.
+ * <p>
+ * Each distinct XPath is read from the DOM document once and then taken from the {@link XPathMemo} of the calculator.
+ * {@link SimplePath Simple paths} are looked up in a {@link DocumentIndex} built on the first of them; other paths are
+ * evaluated by JAXP. Both resolve prefixes with the namespaces declared on the document element.
+ */
 public class Calculator {
-    OperatorsRealizationLibrary library;
-    VariableStorage variableStorage;
-    Document xmlDocument;
+    final OperatorsRealizationLibrary library;
+    final VariableStorage variableStorage;
+    final VariableFrame variableFrame;
+    final Document xmlDocument;
+    final StreamedDocument streamedDocument;
+    final XPathCache xPathCache = XPathCache.getDefault();
+    final Object documentLock;
+    private final XPathMemo xPathMemo;
+    // Prefixes JAXP resolves names of paths with, read from the document with the first path it evaluates.
+    private DocumentNamespaces documentNamespaces;
+    private boolean documentNamespacesRead;
+    // Values of shared nodes while a rule set or a compiled expression is evaluated.
+    private Expression[] sharedValues;
 
     public Calculator() {
-        library = new OperatorsRealizationLibrary();
-        variableStorage = new VariableStorage();
-        xmlDocument = null;
+        this(OperatorsRealizationLibrary.getDefault(), new VariableStorage(), null);
     }
 
     public Calculator(VariableStorage vs) {
-        library = new OperatorsRealizationLibrary();
-        variableStorage = vs;
-        xmlDocument = null;
+        this(OperatorsRealizationLibrary.getDefault(), vs, null);
     }
 
     public Calculator(Document doc) {
-        library = new OperatorsRealizationLibrary();
-        variableStorage = new VariableStorage();
-        xmlDocument = doc;
+        this(OperatorsRealizationLibrary.getDefault(), new VariableStorage(), doc);
     }
 
     public Calculator(VariableStorage vs, Document doc) {
-        library = new OperatorsRealizationLibrary();
+        this(OperatorsRealizationLibrary.getDefault(), vs, doc);
+    }
+
+    public Calculator(OperatorsRealizationLibrary library, VariableStorage vs, Document doc) {
+        this(library, vs, null, doc, null, null, null);
+    }
+
+    // XPath values are taken from a document read by a StreamingExtractor.
+    public Calculator(VariableStorage vs, StreamedDocument doc) {
+        this(OperatorsRealizationLibrary.getDefault(), vs, null, null, doc, null, null);
+    }
+
+    // Variables are read from the slots of the frame.
+    public Calculator(VariableFrame frame) {
+        this(OperatorsRealizationLibrary.getDefault(), frame, null);
+    }
+
+    public Calculator(VariableFrame frame, Document doc) {
+        this(OperatorsRealizationLibrary.getDefault(), frame, doc);
+    }
+
+    public Calculator(OperatorsRealizationLibrary library, VariableFrame frame, Document doc) {
+        this(library, null, frame, doc, null, null, null);
+    }
+
+    public Calculator(VariableFrame frame, StreamedDocument doc) {
+        this(OperatorsRealizationLibrary.getDefault(), null, frame, null, doc, null, null);
+    }
+
+    // Calculators sharing one document from several threads must share a lock guarding all document reads. Their memos
+    // fall back to the shared memo, which isn't modified while they run.
+    Calculator(OperatorsRealizationLibrary library, VariableStorage vs, Document doc, Object documentLock,
+               XPathMemo sharedMemo) {
+        this(library, vs, null, doc, null, documentLock, sharedMemo);
+    }
+
+    private Calculator(OperatorsRealizationLibrary library, VariableStorage vs, VariableFrame frame, Document doc,
+                       StreamedDocument streamedDoc, Object documentLock, XPathMemo sharedMemo) {
+        this.library = library;
         variableStorage = vs;
+        variableFrame = frame;
         xmlDocument = doc;
+        streamedDocument = streamedDoc;
+        this.documentLock = documentLock;
+        xPathMemo = new XPathMemo(sharedMemo);
     }
 
-    public Integer getLastOperationIndex(Expression expression) {
+    // Values of XPath references read from the DOM document; clear it after modifying the document.
+    public XPathMemo getXPathMemo() {
+        return xPathMemo;
+    }
+
+    public int getLastOperationIndex(Expression expression) {
         if (expression == null || expression.getPartsCount() == 0) {
             return -1;
         }
@@ -60,7 +124,7 @@ public class Calculator {
         return max_index;
     }
 
-    public Integer getNextOperationIndex(Expression expression) {
+    public int getNextOperationIndex(Expression expression) {
         if (expression == null || expression.getPartsCount() == 0) {
             return -1;
         }
@@ -80,47 +144,192 @@ public class Calculator {
 
     public Result evaluate(Tree tree) {
         Expression expression = evaluate(tree.getRoot());
+        return toResult(expression);
+    }
+
+    public Result evaluate(CompiledExpression compiledExpression) {
+        // Inside evaluateAll the slots of the whole rule set are used.
+        if (sharedValues != null || compiledExpression.getSharedNodeCount() == 0) {
+            return toResult(evaluate(compiledExpression.getRoot()));
+        }
+        sharedValues = new Expression[compiledExpression.getSharedNodeCount()];
+        try {
+            return toResult(evaluate(compiledExpression.getRoot()));
+        } finally {
+            sharedValues = null;
+        }
+    }
+
+    public Result evaluate(CompiledRule rule) {
+        if (sharedValues != null || rule.getSharedNodeCount() == 0) {
+            return toResult(rule.getRoot().evaluate(this));
+        }
+        sharedValues = new Expression[rule.getSharedNodeCount()];
+        try {
+            return toResult(rule.getRoot().evaluate(this));
+        } finally {
+            sharedValues = null;
+        }
+    }
+
+    public Result[] evaluateAll(RuleSet ruleSet) {
+        return evaluateAll(ruleSet, 0, ruleSet.size());
+    }
+
+    // Evaluates rules [from; to) of the rule set.
+    Result[] evaluateAll(RuleSet ruleSet, int from, int to) {
+        sharedValues = new Expression[ruleSet.getSharedNodeCount()];
+        try {
+            Result[] results = new Result[to - from];
+            for (int i = from; i < to; ++i) {
+                results[i - from] = evaluate(ruleSet.get(i));
+            }
+            return results;
+        } finally {
+            sharedValues = null;
+        }
+    }
+
+    public Result[] evaluateAll(List<Tree> trees) {
+        ExpressionCompiler compiler = new ExpressionCompiler();
+        List<CompiledExpression> expressions = new ArrayList<>(trees.size());
+        for (Tree tree : trees) {
+            expressions.add(compiler.compile(tree));
+        }
+        return evaluateAll(new RuleSet(expressions));
+    }
+
+    static Result toResult(Expression expression) {
         if (expression.getPartsCount() > 0 || !(expression instanceof Constant)) {
             throw new IllegalArgumentException("Incorrect expression provided.");
         }
         Constant constant = (Constant) expression;
         if (constant.getType() == ExpressionType.DOUBLE) {
-            return new Result<Double>(Double.parseDouble(constant.getValue()), constant.getValue(), ExpressionType.DOUBLE);
+            return new Result<Double>(constant.getDoubleValue(), constant.getValue(), ExpressionType.DOUBLE);
         } else if (constant.getType() == ExpressionType.INTEGER) {
-            return new Result<Integer>(Integer.parseInt(constant.getValue()), constant.getValue(), ExpressionType.INTEGER);
+            long value = constant.getLongValue();
+            if (value != (int) value) {
+                throw new IllegalArgumentException("Integer result " + value + " is out of range.");
+            }
+            return new Result<Integer>((int) value, constant.getValue(), ExpressionType.INTEGER);
         } else if (constant.getType() == ExpressionType.STRING) {
             return new Result<String>(constant.getValue(), constant.getValue(), ExpressionType.STRING);
         } else if (constant.getType() == ExpressionType.PERIOD) {
             return new Result<String>(constant.getValue(), constant.getValue(), ExpressionType.PERIOD);
         } else {
-            SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-            try {
-                Date date = formatter.parse(constant.getValue());
-                return new Result<Date>(date, constant.getValue(), ExpressionType.DATE);
-            } catch (ParseException pe) {
-                throw new IllegalArgumentException("Couldn't parse date from " + constant.getValue());
-            }
+            Date date = Date.from(constant.getDateValue().atZone(ZoneId.systemDefault()).toInstant());
+            return new Result<Date>(date, constant.getValue(), ExpressionType.DATE);
         }
     }
 
     public Constant processXPath(Expression expression) {
+        return processXPath(((XPathElement) expression).getPath());
+    }
+
+    Constant processXPath(String path) {
+        if (streamedDocument != null) {
+            return streamedDocument.getValue(path);
+        }
+        if (xmlDocument == null) {
+            throw new IllegalArgumentException("XML Document was not provided.");
+        }
+        Constant value = xPathMemo.getValue(path);
+        if (value == null) {
+            if (documentLock != null) {
+                synchronized (documentLock) {
+                    value = readXPath(path);
+                }
+            } else {
+                value = readXPath(path);
+            }
+            xPathMemo.putValue(path, value);
+        }
+        return value;
+    }
+
+    Sequence processXPathSequence(String path) {
+        if (streamedDocument != null) {
+            return streamedDocument.getSequence(path);
+        }
         if (xmlDocument == null) {
             throw new IllegalArgumentException("XML Document was not provided.");
         }
-        XPathFactory xPathFactory = XPathFactory.newInstance();
-        XPath xpath = xPathFactory.newXPath();
+        Sequence sequence = xPathMemo.getSequence(path);
+        if (sequence == null) {
+            if (documentLock != null) {
+                synchronized (documentLock) {
+                    sequence = readXPathSequence(path);
+                }
+            } else {
+                sequence = readXPathSequence(path);
+            }
+            xPathMemo.putSequence(path, sequence);
+        }
+        return sequence;
+    }
 
-        XPathElement elementPath = (XPathElement) expression;
+    private Sequence readXPathSequence(String path) {
+        SimplePath simplePath = SimplePath.parse(path);
+        if (simplePath != null) {
+            return new Sequence(getDocumentIndex().getValues(simplePath));
+        }
+        try {
+            XPathExpression xpath = xPathCache.get(path, getDocumentNamespaces());
+            NodeList nodes = (NodeList) xpath.evaluate(xmlDocument, XPathConstants.NODESET);
+            String[] values = new String[nodes.getLength()];
+            for (int i = 0; i < values.length; ++i) {
+                values[i] = nodes.item(i).getTextContent();
+            }
+            return new Sequence(values);
+        } catch (XPathExpressionException e) {
+            throw new IllegalArgumentException("Can't evaluate XPath");
+        }
+    }
+
+    private Constant readXPath(String path) {
+        SimplePath simplePath = SimplePath.parse(path);
+        String value;
+        if (simplePath != null) {
+            value = getDocumentIndex().getValue(simplePath);
+        } else {
+            value = evaluateXPath(path);
+        }
+        if (value == null) {
+            throw new IllegalArgumentException("XPath " + path + " matched no nodes.");
+        }
+        return new Constant(value, ExpressionType.STRING);
+    }
 
+    // Text of the first node matched by the path or null.
+    private String evaluateXPath(String path) {
         try {
-            Node node = (Node) xpath.evaluate(elementPath.getPath(), xmlDocument, XPathConstants.NODE);
-            String value = node.getTextContent();
-            return new Constant(value, ExpressionType.STRING);
+            XPathExpression xpath = xPathCache.get(path, getDocumentNamespaces());
+            org.w3c.dom.Node node = (org.w3c.dom.Node) xpath.evaluate(xmlDocument, XPathConstants.NODE);
+            return node == null ? null : node.getTextContent();
         } catch (XPathExpressionException e) {
             throw new IllegalArgumentException("Can't evaluate XPath");
         }
     }
 
+    // Same prefixes as the index resolves, so paths select the same nodes whether they are simple or not.
+    private DocumentNamespaces getDocumentNamespaces() {
+        if (!documentNamespacesRead) {
+            documentNamespaces = DocumentNamespaces.of(xmlDocument);
+            documentNamespacesRead = true;
+        }
+        return documentNamespaces;
+    }
+
+    // Called under the document lock, like every other read of the document.
+    private DocumentIndex getDocumentIndex() {
+        DocumentIndex documentIndex = xPathMemo.getDocumentIndex();
+        if (documentIndex == null) {
+            documentIndex = new DocumentIndex(xmlDocument);
+            xPathMemo.setDocumentIndex(documentIndex);
+        }
+        return documentIndex;
+    }
+
     public Expression processCondition(Expression expression) {
         Condition condition = (Condition) expression;
         if (condition.getIfExpression() == null || condition.getElseExpression() == null || condition.getThenExpression() == null) {
@@ -130,7 +339,7 @@ public class Calculator {
         if (!(if_exp instanceof Constant) || !(if_exp.getType() == ExpressionType.INTEGER)) {
             throw new IllegalArgumentException("Condition statement is broken.");
         }
-        if (Integer.parseInt(((Constant) if_exp).getValue()) == 1) {
+        if (((Constant) if_exp).getLongValue() == 1) {
             return evaluate(condition.getThenExpression());
         } else {
             return evaluate(condition.getElseExpression());
@@ -138,8 +347,9 @@ public class Calculator {
     }
 
     public Expression evaluateInnerExpressions(Expression expression) {
-        Expression processedExpression = new Expression();
-        for (int i = 0; i < expression.getPartsCount(); ++i) {
+        int partsCount = expression.getPartsCount();
+        Expression processedExpression = new Expression(partsCount);
+        for (int i = 0; i < partsCount; ++i) {
             Expression current = expression.at(i);
             if (expression.at(i).getPartsCount() > 0) {
                 current = evaluate(current);
@@ -149,8 +359,9 @@ public class Calculator {
         return processedExpression;
     }
 
+    // Operands are evaluated only when their operator is applied, so the right operand of 'and'/'or' is skipped
+    // when the left one decides the result. Parts left over as an argument list are evaluated at the end.
     public Expression evaluateExpression(Expression expression) {
-        expression = evaluateInnerExpressions(expression);
         while (true) {
             int nextOperationIndex = getNextOperationIndex(expression);
             if (nextOperationIndex == -1) {
@@ -162,47 +373,94 @@ public class Calculator {
             if (operatorType.getIsBinary() && nextOperationIndex - 1 >= 0) {
                 left = evaluate(expression.at(nextOperationIndex - 1));
             }
-            if (nextOperationIndex + 1 < expression.getPartsCount()) {
-                right = evaluate(expression.at(nextOperationIndex + 1));
+            Constant currentResult = shortCircuit(operatorType, left);
+            if (currentResult == null) {
+                if (nextOperationIndex + 1 < expression.getPartsCount() && operatorType.getIsAggregate()) {
+                    right = evaluateSequenceArguments(expression.at(nextOperationIndex + 1));
+                } else if (nextOperationIndex + 1 < expression.getPartsCount()) {
+                    right = evaluate(expression.at(nextOperationIndex + 1));
+                }
+                currentResult = library.apply(operatorType, left, right);
             }
-            Constant currentResult = library.getRealization(operatorType).apply(left, right);
 
-            Expression newExpression = new Expression();
+            int partsCount = expression.getPartsCount();
+            boolean keepsLeft = !operatorType.getIsBinary() && nextOperationIndex - 1 >= 0;
+            Expression newExpression = new Expression(Math.max(0, nextOperationIndex - 1) + (keepsLeft ? 1 : 0) + 1
+                    + Math.max(0, partsCount - nextOperationIndex - 2));
             for (int i = 0; i < nextOperationIndex - 1; ++i) {
                 newExpression.addPart(expression.at(i));
             }
-            if (!operatorType.getIsBinary() && nextOperationIndex - 1 >= 0) {
+            if (keepsLeft) {
                 newExpression.addPart(expression.at(nextOperationIndex - 1));
             }
             newExpression.addPart(currentResult);
-            for (int i = nextOperationIndex + 2; i < expression.getPartsCount(); ++i) {
+            for (int i = nextOperationIndex + 2; i < partsCount; ++i) {
                 newExpression.addPart(expression.at(i));
             }
             expression = newExpression;
         }
-        return expression;
+        return evaluateInnerExpressions(expression);
+    }
+
+    // Arguments of an aggregate function: XPath references give sequences of all matched nodes.
+    private Expression evaluateSequenceArguments(Expression arguments) {
+        if (arguments instanceof XPathElement) {
+            return processXPathSequence(((XPathElement) arguments).getPath());
+        }
+        Expression values = evaluate(arguments);
+        if (values instanceof Constant || values.getPartsCount() == 0) {
+            return values;
+        }
+        Expression result = new Expression(values.getPartsCount());
+        for (int i = 0; i < values.getPartsCount(); ++i) {
+            Expression value = values.at(i);
+            if (value instanceof XPathElement) {
+                result.addPart(processXPathSequence(((XPathElement) value).getPath()));
+            } else {
+                result.addPart(evaluate(value));
+            }
+        }
+        return result;
+    }
+
+    // Result of 'and' or 'or' when it is known from the left operand alone, otherwise null.
+    Constant shortCircuit(Operator.Type operatorType, Expression left) {
+        if (operatorType != Operator.Type.AND && operatorType != Operator.Type.OR) {
+            return null;
+        }
+        if (!(left instanceof Constant) || left.getType() != ExpressionType.INTEGER) {
+            return null;
+        }
+        boolean leftValue = ((Constant) left).getLongValue() > 0;
+        if (operatorType == Operator.Type.AND && !leftValue) {
+            return Constant.of(false);
+        }
+        if (operatorType == Operator.Type.OR && leftValue) {
+            return Constant.of(true);
+        }
+        return null;
     }
 
     public Expression evaluate(Expression expression) {
         if (expression == null) {
-            return new Constant("0", ExpressionType.INTEGER);
+            return Constant.of(0);
         }
         if (expression.getPartsCount() == 1) {
             expression = expression.at(0);
         }
-        if (expression instanceof XPathElement) {
-            return processXPath(expression);
+        if (expression instanceof Constant) {
+            return expression;
         }
         if (expression instanceof Variable) {
-            Variable variable = (Variable) expression;
-            expression = new Constant(variableStorage.getValue(variable.getName()), variableStorage.getType(variable.getName()));
+            return getVariable(((Variable) expression).getName());
+        }
+        if (expression instanceof XPathElement) {
+            return processXPath(expression);
         }
         if (expression instanceof Condition) {
             return processCondition(expression);
         }
-        if (expression instanceof Constant) {
-            return expression;
-        } else if (expression.getPartsCount() > 0) {
+        if (expression.getPartsCount() > 0) {
             expression = evaluateExpression(expression);
             if (expression.getPartsCount() == 1) {
                 expression = expression.at(0);
@@ -211,4 +469,118 @@ public class Calculator {
         }
         throw new IllegalArgumentException("Couldn't evaluate expression.");
     }
-}
\ No newline at end of file
+
+    Constant getVariable(String name) {
+        Constant constant = variableFrame != null ? variableFrame.get(name) : variableStorage.getConstant(name);
+        if (constant == null) {
+            throw new IllegalArgumentException("Variable $" + name + " is not defined.");
+        }
+        return constant;
+    }
+
+    Constant getVariable(VariableNode node) {
+        if (variableFrame == null) {
+            return getVariable(node.getName());
+        }
+        Constant constant = variableFrame.get(node);
+        if (constant == null) {
+            throw new IllegalArgumentException("Variable $" + node.getName() + " is not defined.");
+        }
+        return constant;
+    }
+
+    public Expression evaluate(Node node) {
+        switch (node.getKind()) {
+            case CONSTANT:
+                return ((ConstantNode) node).getConstant();
+            case VARIABLE:
+                return getVariable((VariableNode) node);
+            case XPATH:
+                XPathNode xPathNode = (XPathNode) node;
+                return xPathNode.isSequence() ? processXPathSequence(xPathNode.getPath()) : processXPath(xPathNode.getPath());
+            case CONDITION:
+                return processCondition((ConditionNode) node);
+            case OPERATOR:
+                return processOperator((OperatorNode) node);
+            case SHARED:
+                return processShared((SharedNode) node);
+            case LIST:
+                ListNode list = (ListNode) node;
+                Expression values = new Expression(list.size());
+                for (int i = 0; i < list.size(); ++i) {
+                    values.addPart(evaluate(list.at(i)));
+                }
+                return values;
+            default:
+                throw new IllegalArgumentException("Couldn't evaluate expression.");
+        }
+    }
+
+    // Value of a shared node computed by a step of a compiled rule.
+    Expression processShared(int slot, CompiledRule.Step step) {
+        if (sharedValues == null || slot >= sharedValues.length) {
+            return step.evaluate(this);
+        }
+        Expression value = sharedValues[slot];
+        if (value == null) {
+            value = step.evaluate(this);
+            sharedValues[slot] = value;
+        }
+        return value;
+    }
+
+    // Value of a shared node computed before by a rule generated by RuleClassGenerator, or null.
+    Expression getShared(int slot) {
+        if (sharedValues == null || slot >= sharedValues.length) {
+            return null;
+        }
+        return sharedValues[slot];
+    }
+
+    // Keeps the value of a shared node computed by a generated rule, if there are slots for it, and returns it.
+    Expression putShared(int slot, Expression value) {
+        if (sharedValues != null && slot < sharedValues.length) {
+            sharedValues[slot] = value;
+        }
+        return value;
+    }
+
+    private Expression processShared(SharedNode shared) {
+        if (sharedValues == null || shared.getSlot() >= sharedValues.length) {
+            return evaluate(shared.getNode());
+        }
+        Expression value = sharedValues[shared.getSlot()];
+        if (value == null) {
+            value = evaluate(shared.getNode());
+            sharedValues[shared.getSlot()] = value;
+        }
+        return value;
+    }
+
+    private Expression processCondition(ConditionNode condition) {
+        if (isTrue(evaluate(condition.getIfNode()))) {
+            return evaluate(condition.getThenNode());
+        } else {
+            return evaluate(condition.getElseNode());
+        }
+    }
+
+    // Value of the if part of a condition.
+    boolean isTrue(Expression if_exp) {
+        if (!(if_exp instanceof Constant) || !(if_exp.getType() == ExpressionType.INTEGER)) {
+            throw new IllegalArgumentException("Condition statement is broken.");
+        }
+        return ((Constant) if_exp).getLongValue() == 1;
+    }
+
+    private Constant processOperator(OperatorNode operator) {
+        Operator.Type type = operator.getOperatorType();
+        Expression left = operator.getLeft() == null ? null : evaluate(operator.getLeft());
+        Constant result = shortCircuit(type, left);
+        if (result != null) {
+            return result;
+        }
+        Expression right = operator.getRight() == null ? null : evaluate(operator.getRight());
+        return library.apply(type, left, right);
+    }
+}
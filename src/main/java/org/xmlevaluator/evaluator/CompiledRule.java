@@ -0,0 +1,35 @@
+package org.xmlevaluator.evaluator;
+
+import org.xmlevaluator.dto.Expression;
+import org.xmlevaluator.dto.Result;
+
+/**
+ * Expression turned by {@link RuleCompiler} into a generated class or into a tree of steps. A compiled rule is
+ * immutable and can be shared between threads; the calculator it is evaluated with gives it variables, the
+ * document and the values of shared nodes.
+ */
+public class CompiledRule {
+    interface Step {
+        Expression evaluate(Calculator calculator);
+    }
+
+    private final Step root;
+    private final int sharedNodeCount;
+
+    CompiledRule(Step root, int sharedNodeCount) {
+        this.root = root;
+        this.sharedNodeCount = sharedNodeCount;
+    }
+
+    public Result evaluate(Calculator context) {
+        return context.evaluate(this);
+    }
+
+    Step getRoot() {
+        return root;
+    }
+
+    int getSharedNodeCount() {
+        return sharedNodeCount;
+    }
+}
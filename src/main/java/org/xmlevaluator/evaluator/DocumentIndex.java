@@ -0,0 +1,183 @@
+package org.xmlevaluator.evaluator;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Elements of a DOM document grouped by name and by the name of their parent, built in one pass over the document.
+ * {@link SimplePath Simple paths} are resolved with it by hash lookups instead of a walk over the whole tree, selecting
+ * the same nodes in the same order as JAXP. In a namespace-aware document names are matched by local name and
+ * namespace, prefixes of the path being resolved with {@link DocumentNamespaces}; unprefixed steps select only
+ * elements without a namespace. Elements of a document parsed without namespace awareness have no namespaces, so
+ * there names are matched as written and prefixed steps select nothing.
+ * The index isn't updated when the document is modified.
+ */
+public class DocumentIndex {
+    // Parent name used for the document element.
+    private static final String DOCUMENT = "/";
+
+    private final DocumentNamespaces namespaces;
+    private final Map<String, List<Element>> byName = new HashMap<>();
+    // Element name -> parent name -> elements.
+    private final Map<String, Map<String, List<Element>>> byNameAndParent = new HashMap<>();
+
+    public DocumentIndex(Document document) {
+        namespaces = DocumentNamespaces.of(document);
+        Element root = document.getDocumentElement();
+        Node node = root;
+        while (node != null) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                add((Element) node);
+                if (node.getFirstChild() != null) {
+                    node = node.getFirstChild();
+                    continue;
+                }
+            }
+            while (node != root && node.getNextSibling() == null) {
+                node = node.getParentNode();
+            }
+            node = node == root ? null : node.getNextSibling();
+        }
+    }
+
+    private void add(Element element) {
+        String name = nameOf(element);
+        Node parent = element.getParentNode();
+        String parentName = parent.getNodeType() == Node.ELEMENT_NODE ? nameOf(parent) : DOCUMENT;
+        byName.computeIfAbsent(name, key -> new ArrayList<>()).add(element);
+        byNameAndParent.computeIfAbsent(name, key -> new HashMap<>())
+                .computeIfAbsent(parentName, key -> new ArrayList<>())
+                .add(element);
+    }
+
+    // Name in the form of DocumentNamespaces.qualify. Nodes of documents parsed without namespace awareness have no
+    // local name and are named as written.
+    private static String nameOf(Node node) {
+        String localName = node.getLocalName();
+        if (localName == null) {
+            return node.getNodeName();
+        }
+        return DocumentNamespaces.qualify(node.getNamespaceURI(), localName);
+    }
+
+    // Same as name.equals(nameOf(node)) without building the name.
+    private static boolean hasName(Node node, String name) {
+        String localName = node.getLocalName();
+        if (localName == null) {
+            return name.equals(node.getNodeName());
+        }
+        String namespace = node.getNamespaceURI();
+        if (namespace == null) {
+            return name.equals(localName);
+        }
+        return name.length() == namespace.length() + localName.length() + 2 && name.charAt(0) == '{'
+                && name.startsWith(namespace, 1) && name.charAt(namespace.length() + 1) == '}'
+                && name.endsWith(localName);
+    }
+
+    // Names of the steps as nameOf gives them, or null if the path can't select anything.
+    private String[] resolve(SimplePath path) {
+        String[] names = new String[path.getStepCount()];
+        for (int i = 0; i < names.length; ++i) {
+            names[i] = resolve(path.getStep(i), path);
+            if (names[i] == null) {
+                return null;
+            }
+        }
+        if (path.getAttribute() != null && resolve(path.getAttribute(), path) == null) {
+            return null;
+        }
+        return names;
+    }
+
+    private String resolve(String name, SimplePath path) {
+        if (name.indexOf(':') < 0) {
+            return name;
+        }
+        return namespaces == null ? null : namespaces.resolveName(name, path);
+    }
+
+    // Text of the first node selected by the path or null if there is none.
+    public String getValue(SimplePath path) {
+        String[] names = resolve(path);
+        if (names == null) {
+            return null;
+        }
+        for (Element element : candidates(path, names)) {
+            String value = valueOf(element, path, names);
+            if (value != null) {
+                return value;
+            }
+        }
+        return null;
+    }
+
+    // Texts of all nodes selected by the path.
+    public String[] getValues(SimplePath path) {
+        String[] names = resolve(path);
+        if (names == null) {
+            return new String[0];
+        }
+        List<String> values = new ArrayList<>();
+        for (Element element : candidates(path, names)) {
+            String value = valueOf(element, path, names);
+            if (value != null) {
+                values.add(value);
+            }
+        }
+        return values.toArray(new String[0]);
+    }
+
+    // Elements named as the last step, narrowed down by the name of their parent when the path tells it.
+    private List<Element> candidates(SimplePath path, String[] names) {
+        int last = names.length - 1;
+        if (last == 0 && path.isAnywhere()) {
+            return byName.getOrDefault(names[last], Collections.emptyList());
+        }
+        Map<String, List<Element>> byParent = byNameAndParent.get(names[last]);
+        if (byParent == null) {
+            return Collections.emptyList();
+        }
+        List<Element> candidates = byParent.get(last == 0 ? DOCUMENT : names[last - 1]);
+        return candidates == null ? Collections.emptyList() : candidates;
+    }
+
+    private String valueOf(Element element, SimplePath path, String[] names) {
+        Node node = element;
+        for (int i = names.length - 1; i >= 0; --i) {
+            if (node.getNodeType() != Node.ELEMENT_NODE || !hasName(node, names[i])) {
+                return null;
+            }
+            node = node.getParentNode();
+        }
+        if (!path.isAnywhere() && node.getNodeType() != Node.DOCUMENT_NODE) {
+            return null;
+        }
+        if (path.getAttribute() == null) {
+            return element.getTextContent();
+        }
+        Attr attribute = attributeOf(element, path);
+        return attribute == null ? null : attribute.getValue();
+    }
+
+    // The prefix of the attribute was resolved with the steps of the path.
+    private Attr attributeOf(Element element, SimplePath path) {
+        String name = path.getAttribute();
+        if (namespaces == null) {
+            return element.getAttributeNode(name);
+        }
+        int colon = name.indexOf(':');
+        if (colon < 0) {
+            return element.getAttributeNodeNS(null, name);
+        }
+        return element.getAttributeNodeNS(namespaces.resolve(name.substring(0, colon)), name.substring(colon + 1));
+    }
+}
@@ -0,0 +1,122 @@
+package org.xmlevaluator.evaluator;
+
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamReader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Prefixes declared on the document element of a namespace-aware document, as XPath sees them: the
+ * {@link DocumentIndex}, the {@link StreamingExtractor} and JAXP resolve prefixed names of paths with them, so a path
+ * selects the same nodes whichever of them evaluates it. The default namespace isn't bound, as unprefixed names in XPath 1.0 have no namespace.
+ */
+final class DocumentNamespaces implements NamespaceContext {
+    private final Map<String, String> uris;
+
+    private DocumentNamespaces(Map<String, String> uris) {
+        this.uris = uris;
+    }
+
+    // Returns null for documents parsed without namespace awareness, whose names have no namespaces to resolve.
+    static DocumentNamespaces of(Document document) {
+        Element root = document.getDocumentElement();
+        if (root == null || root.getLocalName() == null) {
+            return null;
+        }
+        Map<String, String> uris = new HashMap<>();
+        NamedNodeMap attributes = root.getAttributes();
+        for (int i = 0; i < attributes.getLength(); ++i) {
+            Attr attribute = (Attr) attributes.item(i);
+            if (XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())
+                    && XMLConstants.XMLNS_ATTRIBUTE.equals(attribute.getPrefix())) {
+                uris.put(attribute.getLocalName(), attribute.getValue());
+            }
+        }
+        return new DocumentNamespaces(uris);
+    }
+
+    // Prefixes declared on the document element the reader is at.
+    static DocumentNamespaces of(XMLStreamReader reader) {
+        Map<String, String> uris = new HashMap<>();
+        for (int i = 0; i < reader.getNamespaceCount(); ++i) {
+            String prefix = reader.getNamespacePrefix(i);
+            if (prefix != null && !prefix.isEmpty()) {
+                uris.put(prefix, reader.getNamespaceURI(i));
+            }
+        }
+        return new DocumentNamespaces(uris);
+    }
+
+    // Local name in braces after the namespace, if there is one. Names of nodes and resolved names of paths are
+    // compared in this form.
+    static String qualify(String namespace, String localName) {
+        return namespace == null || namespace.isEmpty() ? localName : "{" + namespace + "}" + localName;
+    }
+
+    // A step or the attribute of the path in the form given by qualify. Unprefixed names have no namespace.
+    String resolveName(String name, SimplePath path) {
+        int colon = name.indexOf(':');
+        if (colon < 0) {
+            return name;
+        }
+        String namespace = resolve(name.substring(0, colon));
+        if (namespace == null) {
+            // JAXP doesn't compile such paths either.
+            throw new IllegalArgumentException("Prefix of " + name + " in XPath " + path.getPath()
+                    + " is not declared.");
+        }
+        return qualify(namespace, name.substring(colon + 1));
+    }
+
+    // Null if the prefix isn't declared.
+    String resolve(String prefix) {
+        if (XMLConstants.XML_NS_PREFIX.equals(prefix)) {
+            return XMLConstants.XML_NS_URI;
+        }
+        return uris.get(prefix);
+    }
+
+    @Override
+    public String getNamespaceURI(String prefix) {
+        String uri = resolve(prefix);
+        return uri == null ? XMLConstants.NULL_NS_URI : uri;
+    }
+
+    @Override
+    public String getPrefix(String namespaceURI) {
+        for (Map.Entry<String, String> entry : uris.entrySet()) {
+            if (entry.getValue().equals(namespaceURI)) {
+                return entry.getKey();
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public Iterator<String> getPrefixes(String namespaceURI) {
+        String prefix = getPrefix(namespaceURI);
+        return prefix == null ? Collections.emptyIterator() : Collections.singletonList(prefix).iterator();
+    }
+
+    // Paths compiled with equal bindings are the same, see XPathCache.
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return uris.equals(((DocumentNamespaces) o).uris);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(uris);
+    }
+}
@@ -0,0 +1,249 @@
+package org.xmlevaluator.evaluator;
+
+import org.xmlevaluator.dto.Constant;
+import org.xmlevaluator.dto.Expression;
+import org.xmlevaluator.dto.ExpressionType;
+import org.xmlevaluator.dto.Result;
+
+import java.util.Arrays;
+
+/**
+ * Reusable state of {@link PrimitiveRule} evaluations, one per thread: a stack of values and the values of shared
+ * nodes. Integers, numbers and dates computed by a rule are kept unboxed, as a type and a long or a double; other
+ * values are kept as references to the expressions they already are. Arrays only grow, so once they are as deep as
+ * the rules a thread evaluates, evaluating numeric and date rules allocates nothing.
+ * <p>
+ * The context is also the result of an evaluation: it holds it until the thread evaluates the next rule.
+ */
+public final class EvaluationContext {
+    private static final ThreadLocal<EvaluationContext> CURRENT = ThreadLocal.withInitial(EvaluationContext::new);
+    private static final int INITIAL_DEPTH = 16;
+
+    private ExpressionType[] types = new ExpressionType[INITIAL_DEPTH];
+    private long[] longs = new long[INITIAL_DEPTH];
+    private double[] doubles = new double[INITIAL_DEPTH];
+    // Not null for values kept as expressions.
+    private Expression[] references = new Expression[INITIAL_DEPTH];
+    private int size;
+
+    // Shared values computed in this evaluation are those stored with the current generation.
+    private int generation;
+    private int[] sharedGenerations = new int[0];
+    private ExpressionType[] sharedTypes = new ExpressionType[0];
+    private long[] sharedLongs = new long[0];
+    private double[] sharedDoubles = new double[0];
+    private Expression[] sharedReferences = new Expression[0];
+
+    private EvaluationContext() {
+    }
+
+    public static EvaluationContext current() {
+        return CURRENT.get();
+    }
+
+    // Type of the result.
+    public ExpressionType getType() {
+        checkResult();
+        return types[0];
+    }
+
+    public long getLongValue() {
+        checkResult();
+        if (references[0] != null) {
+            return resultConstant().getLongValue();
+        }
+        if (types[0] != ExpressionType.INTEGER) {
+            throw new IllegalArgumentException("Can't get INTEGER value from result of type " + types[0] + ".");
+        }
+        return longs[0];
+    }
+
+    // Value of an INTEGER or DOUBLE result.
+    public double getDoubleValue() {
+        checkResult();
+        if (references[0] != null) {
+            return resultConstant().getDoubleValue();
+        }
+        if (types[0] == ExpressionType.DATE) {
+            throw new IllegalArgumentException("Can't get DOUBLE value from result of type " + types[0] + ".");
+        }
+        return getDouble(0);
+    }
+
+    // Seconds from the epoch of a DATE result.
+    public long getEpochSecond() {
+        checkResult();
+        if (references[0] != null) {
+            return resultConstant().getEpochSecond();
+        }
+        if (types[0] != ExpressionType.DATE) {
+            throw new IllegalArgumentException("Can't get DATE value from result of type " + types[0] + ".");
+        }
+        return longs[0];
+    }
+
+    // The result as an expression; unboxed results are boxed into new constants.
+    public Expression getValue() {
+        checkResult();
+        return toExpression(0);
+    }
+
+    // The result as it would be returned by Calculator.evaluate.
+    public Result getResult() {
+        return Calculator.toResult(getValue());
+    }
+
+    private Constant resultConstant() {
+        if (!(references[0] instanceof Constant)) {
+            throw new IllegalArgumentException("Incorrect expression provided.");
+        }
+        return (Constant) references[0];
+    }
+
+    private void checkResult() {
+        if (size != 1) {
+            throw new IllegalStateException("No rule was evaluated in this context.");
+        }
+    }
+
+    void start(int sharedNodeCount) {
+        size = 0;
+        if (++generation == 0) {
+            Arrays.fill(sharedGenerations, 0);
+            generation = 1;
+        }
+        if (sharedGenerations.length < sharedNodeCount) {
+            sharedGenerations = new int[sharedNodeCount];
+            sharedTypes = new ExpressionType[sharedNodeCount];
+            sharedLongs = new long[sharedNodeCount];
+            sharedDoubles = new double[sharedNodeCount];
+            sharedReferences = new Expression[sharedNodeCount];
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    void pop(int count) {
+        size -= count;
+    }
+
+    // Unboxed values write only the arrays they are read from.
+    void pushLong(long value) {
+        pushUnboxed(ExpressionType.INTEGER);
+        longs[size++] = value;
+    }
+
+    void pushDouble(double value) {
+        pushUnboxed(ExpressionType.DOUBLE);
+        doubles[size++] = value;
+    }
+
+    void pushDate(long epochSecond) {
+        pushUnboxed(ExpressionType.DATE);
+        longs[size++] = epochSecond;
+    }
+
+    private void pushUnboxed(ExpressionType type) {
+        if (size == types.length) {
+            grow();
+        }
+        types[size] = type;
+        references[size] = null;
+    }
+
+    void push(Expression value) {
+        if (size == types.length) {
+            grow();
+        }
+        types[size] = value.getType();
+        references[size++] = value;
+    }
+
+    private void push(ExpressionType type, long longValue, double doubleValue, Expression reference) {
+        if (size == types.length) {
+            grow();
+        }
+        types[size] = type;
+        longs[size] = longValue;
+        doubles[size] = doubleValue;
+        references[size] = reference;
+        ++size;
+    }
+
+    private void grow() {
+        int depth = size * 2;
+        types = Arrays.copyOf(types, depth);
+        longs = Arrays.copyOf(longs, depth);
+        doubles = Arrays.copyOf(doubles, depth);
+        references = Arrays.copyOf(references, depth);
+    }
+
+    ExpressionType getType(int index) {
+        return types[index];
+    }
+
+    // Whether the value is a constant, boxed or not, rather than e.g. a list of arguments.
+    boolean isConstant(int index) {
+        return references[index] == null || references[index] instanceof Constant;
+    }
+
+    // Value of an INTEGER constant.
+    long getLong(int index) {
+        return references[index] != null ? ((Constant) references[index]).getLongValue() : longs[index];
+    }
+
+    // Value of an INTEGER or DOUBLE constant.
+    double getDouble(int index) {
+        if (references[index] != null) {
+            return ((Constant) references[index]).getDoubleValue();
+        }
+        return types[index] == ExpressionType.INTEGER ? longs[index] : doubles[index];
+    }
+
+    // Value of a DATE constant.
+    long getEpochSecond(int index) {
+        return references[index] != null ? ((Constant) references[index]).getEpochSecond() : longs[index];
+    }
+
+    // Value of a constant kept as a reference, e.g. a period or a string.
+    Constant getConstant(int index) {
+        return (Constant) references[index];
+    }
+
+    Expression toExpression(int index) {
+        if (references[index] != null) {
+            return references[index];
+        }
+        if (types[index] == ExpressionType.INTEGER) {
+            return Constant.of(longs[index]);
+        } else if (types[index] == ExpressionType.DOUBLE) {
+            return new Constant(doubles[index]);
+        }
+        return Constant.ofDate(longs[index]);
+    }
+
+    // Pushes the value of the shared node if it was computed in this evaluation. Slots of rules compiled from a rule
+    // set are out of range when they are evaluated alone, such nodes are computed each time.
+    boolean loadShared(int slot) {
+        if (slot >= sharedGenerations.length || sharedGenerations[slot] != generation) {
+            return false;
+        }
+        push(sharedTypes[slot], sharedLongs[slot], sharedDoubles[slot], sharedReferences[slot]);
+        return true;
+    }
+
+    // Remembers the value on the top of the stack as the value of the shared node.
+    void storeShared(int slot) {
+        if (slot >= sharedGenerations.length) {
+            return;
+        }
+        int top = size - 1;
+        sharedGenerations[slot] = generation;
+        sharedTypes[slot] = types[top];
+        sharedLongs[slot] = longs[top];
+        sharedDoubles[slot] = doubles[top];
+        sharedReferences[slot] = references[top];
+    }
+}
@@ -0,0 +1,131 @@
+package org.xmlevaluator.evaluator;
+
+import org.w3c.dom.Document;
+import org.xmlevaluator.OperatorsRealizationLibrary;
+import org.xmlevaluator.compiled.RuleSet;
+import org.xmlevaluator.dto.Result;
+import org.xmlevaluator.dto.VariableStorage;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Evaluates rule sets on several threads. Results always come in the same order as the rules (and documents), no
+ * matter which thread computed them.
+ * <p>
+ * By default the work runs in a {@link ForkJoinPool} of the given parallelism. Any other executor can be passed
+ * instead, e.g. {@code Executors.newVirtualThreadPerTaskExecutor()} on Java 21 and later.
+ */
+public class ParallelEvaluator implements AutoCloseable {
+    private final ExecutorService executor;
+    private final boolean ownsExecutor;
+    private final int parallelism;
+    private final OperatorsRealizationLibrary library;
+
+    public ParallelEvaluator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelEvaluator(int parallelism) {
+        this(new ForkJoinPool(parallelism), true, parallelism);
+    }
+
+    // The executor is not shut down by close().
+    public ParallelEvaluator(ExecutorService executor, int parallelism) {
+        this(executor, false, parallelism);
+    }
+
+    private ParallelEvaluator(ExecutorService executor, boolean ownsExecutor, int parallelism) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("Parallelism should be positive.");
+        }
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.parallelism = parallelism;
+        this.library = OperatorsRealizationLibrary.getDefault();
+    }
+
+    // Every document is evaluated by its own task.
+    public List<Result[]> evaluateAll(RuleSet ruleSet, VariableStorage storage, List<Document> documents) {
+        List<Callable<Result[]>> tasks = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            tasks.add(() -> new Calculator(library, storage, document).evaluateAll(ruleSet));
+        }
+        return invokeAll(tasks);
+    }
+
+    // Rules are split into chunks evaluated in parallel. The document is read by one thread at a time, so every path of
+    // the rule set is read once on the calling thread before the chunks start (indexing the document if there are
+    // simple paths), and the chunks take the values from that memo instead of each reading them again. Paths are read
+    // even if only branches no rule takes refer to them. Shared nodes other than paths don't read the document and are
+    // computed by every chunk referring to them.
+    public Result[] evaluateAll(RuleSet ruleSet, VariableStorage storage, Document document) {
+        int chunkCount = Math.min(ruleSet.size(), parallelism * 4);
+        if (chunkCount <= 1) {
+            return new Calculator(library, storage, document).evaluateAll(ruleSet);
+        }
+        Object documentLock = new Object();
+        XPathMemo documentMemo = readPaths(ruleSet, storage, document);
+        Result[] results = new Result[ruleSet.size()];
+        List<Callable<Void>> tasks = new ArrayList<>(chunkCount);
+        for (int chunk = 0; chunk < chunkCount; ++chunk) {
+            int from = (int) ((long) ruleSet.size() * chunk / chunkCount);
+            int to = (int) ((long) ruleSet.size() * (chunk + 1) / chunkCount);
+            tasks.add(() -> {
+                Calculator calculator = new Calculator(library, storage, document, documentLock, documentMemo);
+                Result[] chunkResults = calculator.evaluateAll(ruleSet, from, to);
+                System.arraycopy(chunkResults, 0, results, from, to - from);
+                return null;
+            });
+        }
+        invokeAll(tasks);
+        return results;
+    }
+
+    // Paths which can't be read are left to the rules referring to them, which report the error.
+    private XPathMemo readPaths(RuleSet ruleSet, VariableStorage storage, Document document) {
+        Calculator reader = new Calculator(library, storage, document);
+        for (String path : StreamingExtractor.collectPaths(ruleSet)) {
+            try {
+                reader.processXPath(path);
+            } catch (IllegalArgumentException e) {
+                // Read again by the rule.
+            }
+        }
+        for (String path : StreamingExtractor.collectSequencePaths(ruleSet)) {
+            try {
+                reader.processXPathSequence(path);
+            } catch (IllegalArgumentException e) {
+                // Read again by the rule.
+            }
+        }
+        return reader.getXPathMemo();
+    }
+
+    private <T> List<T> invokeAll(List<Callable<T>> tasks) {
+        try {
+            List<Future<T>> futures = executor.invokeAll(tasks);
+            List<T> results = new ArrayList<>(futures.size());
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Evaluation was interrupted.", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Evaluation failed.", e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        if (ownsExecutor) {
+            executor.shutdown();
+        }
+    }
+}
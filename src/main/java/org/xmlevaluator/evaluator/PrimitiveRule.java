@@ -0,0 +1,32 @@
+package org.xmlevaluator.evaluator;
+
+/**
+ * Expression turned by {@link PrimitiveRuleCompiler} into a tree of steps which compute values on the stack of an
+ * {@link EvaluationContext} instead of creating constants. A primitive rule is immutable and can be shared between
+ * threads; each thread evaluates it in its own context.
+ */
+public class PrimitiveRule {
+    // Pushes exactly one value.
+    interface Step {
+        void evaluate(Calculator calculator, EvaluationContext context);
+    }
+
+    private final Step root;
+    private final int sharedNodeCount;
+
+    PrimitiveRule(Step root, int sharedNodeCount) {
+        this.root = root;
+        this.sharedNodeCount = sharedNodeCount;
+    }
+
+    /**
+     * Evaluates the rule with variables and the document of the calculator. The result is held by the returned
+     * context of the current thread until the thread evaluates the next rule.
+     */
+    public EvaluationContext evaluate(Calculator calculator) {
+        EvaluationContext context = EvaluationContext.current();
+        context.start(sharedNodeCount);
+        root.evaluate(calculator, context);
+        return context;
+    }
+}
@@ -0,0 +1,318 @@
+package org.xmlevaluator.evaluator;
+
+import org.xmlevaluator.OperatorsRealizationLibrary;
+import org.xmlevaluator.compiled.*;
+import org.xmlevaluator.dto.*;
+
+/**
+ * Turns compiled expressions into {@link PrimitiveRule}s. Arithmetic, comparisons, logical operators and date
+ * functions on integers, numbers and dates are computed on the stack of the {@link EvaluationContext} without creating
+ * constants. Any other operation, or one of these on other types, is given to the realization from the library with
+ * its operands boxed, so results are the same as those of a {@link RuleCompiler}. The unboxed operations repeat the
+ * realizations of {@link OperatorsRealizationLibrary}, so a library of another class gets all operations boxed.
+ */
+public class PrimitiveRuleCompiler {
+    private final OperatorsRealizationLibrary library;
+    private final boolean unboxed;
+
+    public PrimitiveRuleCompiler() {
+        this(OperatorsRealizationLibrary.getDefault());
+    }
+
+    public PrimitiveRuleCompiler(OperatorsRealizationLibrary library) {
+        this.library = library;
+        this.unboxed = library.getClass() == OperatorsRealizationLibrary.class;
+    }
+
+    // Constant subtrees of the tree, e.g. durations given by literals, are evaluated once here.
+    public PrimitiveRule compile(Tree tree) {
+        return compile(new ConstantFolder(library).rewrite(new ExpressionCompiler().compile(tree)));
+    }
+
+    public PrimitiveRule compile(CompiledExpression expression) {
+        return new PrimitiveRule(compile(expression.getRoot()), expression.getSharedNodeCount());
+    }
+
+    private PrimitiveRule.Step compile(Node node) {
+        switch (node.getKind()) {
+            case CONSTANT:
+                Constant constant = ((ConstantNode) node).getConstant();
+                return (calculator, context) -> context.push(constant);
+            case VARIABLE:
+                VariableNode variable = (VariableNode) node;
+                return (calculator, context) -> context.push(calculator.getVariable(variable));
+            case XPATH:
+                XPathNode xPathNode = (XPathNode) node;
+                String path = xPathNode.getPath();
+                if (xPathNode.isSequence()) {
+                    return (calculator, context) -> context.push(calculator.processXPathSequence(path));
+                }
+                return (calculator, context) -> context.push(calculator.processXPath(path));
+            case CONDITION:
+                return compileCondition((ConditionNode) node);
+            case OPERATOR:
+                return compileOperator((OperatorNode) node);
+            case SHARED:
+                SharedNode shared = (SharedNode) node;
+                int slot = shared.getSlot();
+                PrimitiveRule.Step step = compile(shared.getNode());
+                return (calculator, context) -> {
+                    if (!context.loadShared(slot)) {
+                        step.evaluate(calculator, context);
+                        context.storeShared(slot);
+                    }
+                };
+            default:
+                // Lists of arguments are given to realizations as expressions anyway.
+                return (calculator, context) -> context.push(calculator.evaluate(node));
+        }
+    }
+
+    private PrimitiveRule.Step compileCondition(ConditionNode condition) {
+        PrimitiveRule.Step ifStep = compile(condition.getIfNode());
+        PrimitiveRule.Step thenStep = compile(condition.getThenNode());
+        PrimitiveRule.Step elseStep = compile(condition.getElseNode());
+        return (calculator, context) -> {
+            ifStep.evaluate(calculator, context);
+            boolean value = isTrue(context, context.size() - 1);
+            context.pop(1);
+            if (value) {
+                thenStep.evaluate(calculator, context);
+            } else {
+                elseStep.evaluate(calculator, context);
+            }
+        };
+    }
+
+    // Same as Calculator.isTrue.
+    private static boolean isTrue(EvaluationContext context, int index) {
+        if (!context.isConstant(index) || context.getType(index) != ExpressionType.INTEGER) {
+            throw new IllegalArgumentException("Condition statement is broken.");
+        }
+        return context.getLong(index) == 1;
+    }
+
+    private PrimitiveRule.Step compileOperator(OperatorNode operator) {
+        Operator.Type type = operator.getOperatorType();
+        if (library.getRealization(type) == null) {
+            return (calculator, context) -> context.push(calculator.evaluate(operator));
+        }
+        PrimitiveRule.Step left = operator.getLeft() == null ? null : compile(operator.getLeft());
+        PrimitiveRule.Step right = operator.getRight() == null ? null : compile(operator.getRight());
+        boolean unboxedType = unboxed && isUnboxed(type);
+        boolean shortCircuits = type == Operator.Type.AND || type == Operator.Type.OR;
+        int count = (left == null ? 0 : 1) + (right == null ? 0 : 1);
+        return (calculator, context) -> {
+            if (left != null) {
+                left.evaluate(calculator, context);
+                if (shortCircuits && shortCircuit(type, context)) {
+                    return;
+                }
+            }
+            if (right != null) {
+                right.evaluate(calculator, context);
+            }
+            int top = context.size() - 1;
+            int rightIndex = right == null ? -1 : top;
+            int leftIndex = left == null ? -1 : top - count + 1;
+            if (!unboxedType || !apply(type, context, leftIndex, rightIndex, count)) {
+                Expression leftValue = left == null ? null : context.toExpression(leftIndex);
+                Expression rightValue = right == null ? null : context.toExpression(rightIndex);
+                context.pop(count);
+                context.push(library.apply(type, leftValue, rightValue));
+            }
+        };
+    }
+
+    // Same as Calculator.shortCircuit: replaces the left operand by the result when it decides it.
+    private static boolean shortCircuit(Operator.Type type, EvaluationContext context) {
+        int top = context.size() - 1;
+        if (!context.isConstant(top) || context.getType(top) != ExpressionType.INTEGER) {
+            return false;
+        }
+        boolean value = context.getLong(top) > 0;
+        if ((type == Operator.Type.AND && !value) || (type == Operator.Type.OR && value)) {
+            context.pop(1);
+            context.pushLong(value ? 1 : 0);
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isUnboxed(Operator.Type type) {
+        switch (type) {
+            case PLUS:
+            case MINUS:
+            case MULTIPLY:
+            case DIVIDE:
+            case EQ:
+            case EQUAL:
+            case NOTEQUAL:
+            case AND:
+            case OR:
+            case FN_DAY_FROM_DATE:
+            case FN_MONTH_FROM_DATE:
+            case FN_YEAR_FROM_DATE:
+            case XSD_DATE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Replaces the operands on the top of the stack by the result; false if it can't handle their types. Dispatched
+    // with a switch, so no call site is shared by the operations of all operators.
+    private static boolean apply(Operator.Type type, EvaluationContext context, int left, int right, int count) {
+        switch (type) {
+            case PLUS:
+            case MINUS:
+            case MULTIPLY:
+            case DIVIDE:
+                return arithmetic(type, context, left, right);
+            case EQ:
+            case EQUAL:
+                return compare(context, left, right, true);
+            case NOTEQUAL:
+                return compare(context, left, right, false);
+            case AND:
+            case OR:
+                return logical(type, context, left, right);
+            case FN_DAY_FROM_DATE:
+            case FN_MONTH_FROM_DATE:
+            case FN_YEAR_FROM_DATE:
+                return dateField(type, context, right, count);
+            case XSD_DATE:
+                return xsdDate(context, left, right);
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isNumber(ExpressionType type) {
+        return type == ExpressionType.INTEGER || type == ExpressionType.DOUBLE;
+    }
+
+    private static boolean areConstants(EvaluationContext context, int left, int right) {
+        return left != -1 && right != -1 && context.isConstant(left) && context.isConstant(right);
+    }
+
+    private static boolean arithmetic(Operator.Type type, EvaluationContext context, int left, int right) {
+        if (!areConstants(context, left, right)) {
+            return false;
+        }
+        ExpressionType leftType = context.getType(left);
+        ExpressionType rightType = context.getType(right);
+        if (leftType == ExpressionType.INTEGER && rightType == ExpressionType.INTEGER) {
+            long a = context.getLong(left);
+            long b = context.getLong(right);
+            long result;
+            if (type == Operator.Type.PLUS) {
+                result = a + b;
+            } else if (type == Operator.Type.MINUS) {
+                result = a - b;
+            } else if (type == Operator.Type.MULTIPLY) {
+                result = a * b;
+            } else {
+                result = a / b;
+            }
+            context.pop(2);
+            context.pushLong(result);
+            return true;
+        }
+        if (isNumber(leftType) && isNumber(rightType)) {
+            double a = context.getDouble(left);
+            double b = context.getDouble(right);
+            double result;
+            if (type == Operator.Type.PLUS) {
+                result = a + b;
+            } else if (type == Operator.Type.MINUS) {
+                result = a - b;
+            } else if (type == Operator.Type.MULTIPLY) {
+                result = a * b;
+            } else {
+                result = a / b;
+            }
+            context.pop(2);
+            context.pushDouble(result);
+            return true;
+        }
+        if (type != Operator.Type.PLUS && type != Operator.Type.MINUS) {
+            return false;
+        }
+        // A period before a date is moved after it by the library for both operators.
+        int date, period;
+        if (leftType == ExpressionType.DATE && rightType == ExpressionType.PERIOD) {
+            date = left;
+            period = right;
+        } else if (leftType == ExpressionType.PERIOD && rightType == ExpressionType.DATE) {
+            date = right;
+            period = left;
+        } else {
+            return false;
+        }
+        long sign = type == Operator.Type.PLUS ? 1 : -1;
+        Constant duration = context.getConstant(period);
+        long result = Dates.plus(context.getEpochSecond(date), sign * duration.getPeriodMonths(),
+                sign * duration.getPeriodSeconds());
+        context.pop(2);
+        context.pushDate(result);
+        return true;
+    }
+
+    // Values of other types, or of two different types, are compared by their string forms by the library.
+    private static boolean compare(EvaluationContext context, int left, int right, boolean equal) {
+        if (!areConstants(context, left, right) || context.getType(left) != context.getType(right)) {
+            return false;
+        }
+        boolean result;
+        ExpressionType type = context.getType(left);
+        if (type == ExpressionType.INTEGER) {
+            result = context.getLong(left) == context.getLong(right);
+        } else if (type == ExpressionType.DOUBLE) {
+            result = context.getDouble(left) == context.getDouble(right);
+        } else if (type == ExpressionType.DATE) {
+            result = context.getEpochSecond(left) == context.getEpochSecond(right);
+        } else {
+            return false;
+        }
+        context.pop(2);
+        context.pushLong(result == equal ? 1 : 0);
+        return true;
+    }
+
+    private static boolean logical(Operator.Type type, EvaluationContext context, int left, int right) {
+        if (!areConstants(context, left, right) || context.getType(left) != ExpressionType.INTEGER
+                || context.getType(right) != ExpressionType.INTEGER) {
+            return false;
+        }
+        boolean a = context.getLong(left) > 0;
+        boolean b = context.getLong(right) > 0;
+        context.pop(2);
+        context.pushLong((type == Operator.Type.AND ? a && b : a || b) ? 1 : 0);
+        return true;
+    }
+
+    private static boolean dateField(Operator.Type type, EvaluationContext context, int right, int count) {
+        if (right == -1 || !context.isConstant(right) || context.getType(right) != ExpressionType.DATE) {
+            return false;
+        }
+        long date = context.getEpochSecond(right);
+        long result;
+        if (type == Operator.Type.FN_DAY_FROM_DATE) {
+            result = Dates.getDay(date);
+        } else if (type == Operator.Type.FN_MONTH_FROM_DATE) {
+            result = Dates.getMonth(date);
+        } else {
+            result = Dates.getYear(date);
+        }
+        context.pop(count);
+        context.pushLong(result);
+        return true;
+    }
+
+    // Strings are given to the library, which keeps them as they are written.
+    private static boolean xsdDate(EvaluationContext context, int left, int right) {
+        return left == -1 && right != -1 && context.isConstant(right)
+                && context.getType(right) == ExpressionType.DATE;
+    }
+}
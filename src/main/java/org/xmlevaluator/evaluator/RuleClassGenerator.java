@@ -0,0 +1,339 @@
+package org.xmlevaluator.evaluator;
+
+import org.objectweb.asm.ClassTooLargeException;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodTooLargeException;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.xmlevaluator.OperatorsRealizationLibrary;
+import org.xmlevaluator.compiled.*;
+import org.xmlevaluator.dto.Constant;
+import org.xmlevaluator.dto.Expression;
+import org.xmlevaluator.dto.Operator;
+import org.xmlevaluator.dto.Sequence;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generates a hidden class for a rule, whose {@code evaluate} method computes the whole tree of the rule as straight-line
+ * code: the calls the interpreter and the steps of {@link RuleCompiler} make through shared call sites are made here
+ * from call sites of this rule only, and constants, variable nodes and the library are static final fields, which the
+ * JIT treats as constants. Each shared node becomes a static method, so it is generated once however many times the
+ * tree refers to it. Operators without a realization in the library are left to {@link Calculator#evaluate(Node)}.
+ */
+final class RuleClassGenerator {
+    private static final String CLASS_NAME = "org/xmlevaluator/evaluator/GeneratedRule";
+    private static final String CALCULATOR = Type.getInternalName(Calculator.class);
+    private static final String CALCULATOR_DESCRIPTOR = Type.getDescriptor(Calculator.class);
+    private static final String EXPRESSION_DESCRIPTOR = Type.getDescriptor(Expression.class);
+    private static final String CONSTANT_DESCRIPTOR = Type.getDescriptor(Constant.class);
+    private static final String NODE_DESCRIPTOR = Type.getDescriptor(Node.class);
+    private static final String TYPE_DESCRIPTOR = Type.getDescriptor(Operator.Type.class);
+    private static final String LIBRARY = Type.getInternalName(OperatorsRealizationLibrary.class);
+    // Evaluates a node with the calculator given as the only argument.
+    private static final String NODE_METHOD_DESCRIPTOR = "(" + CALCULATOR_DESCRIPTOR + ")" + EXPRESSION_DESCRIPTOR;
+
+    private final OperatorsRealizationLibrary library;
+    private final ClassWriter classWriter;
+    // Values of the static fields, given to the class as its class data.
+    private final List<Object> fieldValues = new ArrayList<>();
+    private final List<String> fieldDescriptors = new ArrayList<>();
+    private final Map<Integer, String> sharedMethods = new HashMap<>();
+    private int libraryField = -1;
+
+    private RuleClassGenerator(OperatorsRealizationLibrary library) {
+        this.library = library;
+        this.classWriter = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+            // Common supertypes of values on the stack are looked up among the classes of this library.
+            @Override
+            protected ClassLoader getClassLoader() {
+                return RuleClassGenerator.class.getClassLoader();
+            }
+        };
+    }
+
+    // Null if the rule is too large for a class.
+    static CompiledRule.Step generate(Node root, OperatorsRealizationLibrary library) {
+        RuleClassGenerator generator = new RuleClassGenerator(library);
+        byte[] bytes;
+        try {
+            bytes = generator.generate(root);
+        } catch (MethodTooLargeException | ClassTooLargeException e) {
+            return null;
+        }
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup()
+                    .defineHiddenClassWithClassData(bytes, generator.fieldValues.toArray(), true);
+            return (CompiledRule.Step) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class))
+                    .invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException("Couldn't define class of a rule.", e);
+        }
+    }
+
+    private byte[] generate(Node root) {
+        classWriter.visit(V19, ACC_FINAL | ACC_SUPER, CLASS_NAME, null, "java/lang/Object",
+                new String[]{Type.getInternalName(CompiledRule.Step.class)});
+
+        MethodVisitor constructor = classWriter.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(ALOAD, 0);
+        constructor.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        constructor.visitInsn(RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+
+        String rootMethod = generateMethod("root", root);
+        MethodVisitor evaluate = classWriter.visitMethod(ACC_PUBLIC, "evaluate", NODE_METHOD_DESCRIPTOR, null, null);
+        evaluate.visitCode();
+        evaluate.visitVarInsn(ALOAD, 1);
+        evaluate.visitMethodInsn(INVOKESTATIC, CLASS_NAME, rootMethod, NODE_METHOD_DESCRIPTOR, false);
+        evaluate.visitInsn(ARETURN);
+        evaluate.visitMaxs(0, 0);
+        evaluate.visitEnd();
+
+        generateFields();
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+
+    // Static method which evaluates the node with the calculator in local 0.
+    private String generateMethod(String name, Node node) {
+        MethodVisitor method = classWriter.visitMethod(ACC_PRIVATE | ACC_STATIC, name, NODE_METHOD_DESCRIPTOR, null,
+                null);
+        method.visitCode();
+        new NodeWriter(method).write(node);
+        method.visitInsn(ARETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+        return name;
+    }
+
+    // The static final fields and the initializer which reads them from the class data.
+    private void generateFields() {
+        MethodVisitor initializer = classWriter.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+        initializer.visitCode();
+        initializer.visitMethodInsn(INVOKESTATIC, "java/lang/invoke/MethodHandles", "lookup",
+                "()Ljava/lang/invoke/MethodHandles$Lookup;", false);
+        initializer.visitLdcInsn("_");
+        initializer.visitLdcInsn(Type.getType(Object[].class));
+        initializer.visitMethodInsn(INVOKESTATIC, "java/lang/invoke/MethodHandles", "classData",
+                "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)Ljava/lang/Object;", false);
+        initializer.visitTypeInsn(CHECKCAST, "[Ljava/lang/Object;");
+        initializer.visitVarInsn(ASTORE, 0);
+        for (int i = 0; i < fieldDescriptors.size(); ++i) {
+            String descriptor = fieldDescriptors.get(i);
+            classWriter.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL, fieldName(i), descriptor, null, null)
+                    .visitEnd();
+            initializer.visitVarInsn(ALOAD, 0);
+            initializer.visitLdcInsn(i);
+            initializer.visitInsn(AALOAD);
+            initializer.visitTypeInsn(CHECKCAST, Type.getType(descriptor).getInternalName());
+            initializer.visitFieldInsn(PUTSTATIC, CLASS_NAME, fieldName(i), descriptor);
+        }
+        initializer.visitInsn(RETURN);
+        initializer.visitMaxs(0, 0);
+        initializer.visitEnd();
+    }
+
+    private static String fieldName(int index) {
+        return "value" + index;
+    }
+
+    // Index of a new static field holding the value.
+    private int field(Object value, String descriptor) {
+        fieldValues.add(value);
+        fieldDescriptors.add(descriptor);
+        return fieldValues.size() - 1;
+    }
+
+    private final class NodeWriter {
+        private final MethodVisitor method;
+        // Local 0 is the calculator.
+        private int nextLocal = 1;
+
+        private NodeWriter(MethodVisitor method) {
+            this.method = method;
+        }
+
+        // Leaves the value of the node on the stack.
+        private void write(Node node) {
+            switch (node.getKind()) {
+                case CONSTANT:
+                    getField(field(((ConstantNode) node).getConstant(), CONSTANT_DESCRIPTOR));
+                    break;
+                case VARIABLE:
+                    method.visitVarInsn(ALOAD, 0);
+                    getField(field(node, Type.getDescriptor(VariableNode.class)));
+                    callCalculator("getVariable", "(" + Type.getDescriptor(VariableNode.class) + ")" + CONSTANT_DESCRIPTOR);
+                    break;
+                case XPATH:
+                    XPathNode xPathNode = (XPathNode) node;
+                    method.visitVarInsn(ALOAD, 0);
+                    method.visitLdcInsn(xPathNode.getPath());
+                    if (xPathNode.isSequence()) {
+                        callCalculator("processXPathSequence", "(Ljava/lang/String;)" + Type.getDescriptor(Sequence.class));
+                    } else {
+                        callCalculator("processXPath", "(Ljava/lang/String;)" + CONSTANT_DESCRIPTOR);
+                    }
+                    break;
+                case CONDITION:
+                    writeCondition((ConditionNode) node);
+                    break;
+                case OPERATOR:
+                    writeOperator((OperatorNode) node);
+                    break;
+                case SHARED:
+                    method.visitVarInsn(ALOAD, 0);
+                    method.visitMethodInsn(INVOKESTATIC, CLASS_NAME, sharedMethod((SharedNode) node),
+                            NODE_METHOD_DESCRIPTOR, false);
+                    break;
+                case LIST:
+                    writeList((ListNode) node);
+                    break;
+                default:
+                    writeInterpreted(node);
+            }
+        }
+
+        private void writeCondition(ConditionNode condition) {
+            Label elseLabel = new Label();
+            Label end = new Label();
+            method.visitVarInsn(ALOAD, 0);
+            write(condition.getIfNode());
+            callCalculator("isTrue", "(" + EXPRESSION_DESCRIPTOR + ")Z");
+            method.visitJumpInsn(IFEQ, elseLabel);
+            write(condition.getThenNode());
+            method.visitJumpInsn(GOTO, end);
+            method.visitLabel(elseLabel);
+            write(condition.getElseNode());
+            method.visitLabel(end);
+        }
+
+        private void writeOperator(OperatorNode operator) {
+            Operator.Type type = operator.getOperatorType();
+            if (library.getRealization(type) == null) {
+                writeInterpreted(operator);
+                return;
+            }
+            Node left = operator.getLeft();
+            Node right = operator.getRight();
+            if ((type == Operator.Type.AND || type == Operator.Type.OR) && left != null) {
+                // The result of Calculator.shortCircuit, if it isn't null, is the value of the operator.
+                Label end = new Label();
+                int leftLocal = nextLocal++;
+                write(left);
+                method.visitVarInsn(ASTORE, leftLocal);
+                method.visitVarInsn(ALOAD, 0);
+                getType(type);
+                method.visitVarInsn(ALOAD, leftLocal);
+                callCalculator("shortCircuit", "(" + TYPE_DESCRIPTOR + EXPRESSION_DESCRIPTOR + ")" + CONSTANT_DESCRIPTOR);
+                method.visitInsn(DUP);
+                method.visitJumpInsn(IFNONNULL, end);
+                method.visitInsn(POP);
+                getLibrary();
+                getType(type);
+                method.visitVarInsn(ALOAD, leftLocal);
+                writeOperand(right);
+                callLibrary();
+                method.visitLabel(end);
+                return;
+            }
+            getLibrary();
+            getType(type);
+            writeOperand(left);
+            writeOperand(right);
+            callLibrary();
+        }
+
+        private void writeOperand(Node operand) {
+            if (operand == null) {
+                method.visitInsn(ACONST_NULL);
+            } else {
+                write(operand);
+            }
+        }
+
+        private void writeList(ListNode list) {
+            method.visitTypeInsn(NEW, Type.getInternalName(Expression.class));
+            method.visitInsn(DUP);
+            method.visitLdcInsn(list.size());
+            method.visitMethodInsn(INVOKESPECIAL, Type.getInternalName(Expression.class), "<init>", "(I)V", false);
+            for (int i = 0; i < list.size(); ++i) {
+                method.visitInsn(DUP);
+                write(list.at(i));
+                method.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(Expression.class), "addPart",
+                        "(" + EXPRESSION_DESCRIPTOR + ")V", false);
+            }
+        }
+
+        private void writeInterpreted(Node node) {
+            method.visitVarInsn(ALOAD, 0);
+            getField(field(node, NODE_DESCRIPTOR));
+            callCalculator("evaluate", "(" + NODE_DESCRIPTOR + ")" + EXPRESSION_DESCRIPTOR);
+        }
+
+        private void getField(int index) {
+            method.visitFieldInsn(GETSTATIC, CLASS_NAME, fieldName(index), fieldDescriptors.get(index));
+        }
+
+        private void getType(Operator.Type type) {
+            method.visitFieldInsn(GETSTATIC, Type.getInternalName(Operator.Type.class), type.name(), TYPE_DESCRIPTOR);
+        }
+
+        private void getLibrary() {
+            if (libraryField == -1) {
+                libraryField = field(library, Type.getDescriptor(OperatorsRealizationLibrary.class));
+            }
+            getField(libraryField);
+        }
+
+        private void callLibrary() {
+            method.visitMethodInsn(INVOKEVIRTUAL, LIBRARY, "apply",
+                    "(" + TYPE_DESCRIPTOR + EXPRESSION_DESCRIPTOR + EXPRESSION_DESCRIPTOR + ")" + CONSTANT_DESCRIPTOR,
+                    false);
+        }
+
+        private void callCalculator(String name, String descriptor) {
+            method.visitMethodInsn(INVOKEVIRTUAL, CALCULATOR, name, descriptor, false);
+        }
+    }
+
+    // Method which returns the value kept in the slot of the shared node, computing and keeping it the first time.
+    private String sharedMethod(SharedNode shared) {
+        String name = sharedMethods.get(shared.getSlot());
+        if (name != null) {
+            return name;
+        }
+        name = "shared" + shared.getSlot();
+        sharedMethods.put(shared.getSlot(), name);
+        MethodVisitor method = classWriter.visitMethod(ACC_PRIVATE | ACC_STATIC, name, NODE_METHOD_DESCRIPTOR, null,
+                null);
+        method.visitCode();
+        Label end = new Label();
+        method.visitVarInsn(ALOAD, 0);
+        method.visitLdcInsn(shared.getSlot());
+        method.visitMethodInsn(INVOKEVIRTUAL, CALCULATOR, "getShared", "(I)" + EXPRESSION_DESCRIPTOR, false);
+        method.visitInsn(DUP);
+        method.visitJumpInsn(IFNONNULL, end);
+        method.visitInsn(POP);
+        method.visitVarInsn(ALOAD, 0);
+        method.visitLdcInsn(shared.getSlot());
+        new NodeWriter(method).write(shared.getNode());
+        method.visitMethodInsn(INVOKEVIRTUAL, CALCULATOR, "putShared",
+                "(I" + EXPRESSION_DESCRIPTOR + ")" + EXPRESSION_DESCRIPTOR, false);
+        method.visitLabel(end);
+        method.visitInsn(ARETURN);
+        method.visitMaxs(0, 0);
+        method.visitEnd();
+        return name;
+    }
+}
@@ -0,0 +1,131 @@
+package org.xmlevaluator.evaluator;
+
+import org.xmlevaluator.OperatorsRealizationLibrary;
+import org.xmlevaluator.compiled.*;
+import org.xmlevaluator.dto.Constant;
+import org.xmlevaluator.dto.Expression;
+import org.xmlevaluator.dto.Operator;
+import org.xmlevaluator.dto.Tree;
+
+/**
+ * Turns compiled expressions into {@link CompiledRule}s. Every rule is generated as a hidden class of its own by
+ * {@link RuleClassGenerator}, so the calls it makes aren't shared with other rules. Rules too large for a class, and all
+ * rules of a compiler made with {@code generateClasses} false, are compiled into trees of steps instead: every node
+ * becomes a lambda which calls the steps of its children, which saves dispatching on node classes but still goes through
+ * call sites shared by all rules. Either way operators are applied with {@link OperatorsRealizationLibrary#apply}, and
+ * operators without a realization in the library of the compiler are left to {@link Calculator#evaluate(Node)}, which
+ * reports them the same way as for a {@link CompiledExpression}.
+ */
+public class RuleCompiler {
+    private final OperatorsRealizationLibrary library;
+    private final boolean generateClasses;
+
+    public RuleCompiler() {
+        this(OperatorsRealizationLibrary.getDefault());
+    }
+
+    public RuleCompiler(OperatorsRealizationLibrary library) {
+        this(library, true);
+    }
+
+    public RuleCompiler(OperatorsRealizationLibrary library, boolean generateClasses) {
+        this.library = library;
+        this.generateClasses = generateClasses;
+    }
+
+    // Constant subtrees of the tree, e.g. durations given by literals, are evaluated once here.
+    public CompiledRule compile(Tree tree) {
+        return compile(new ConstantFolder(library).rewrite(new ExpressionCompiler().compile(tree)));
+    }
+
+    public CompiledRule compile(CompiledExpression expression) {
+        CompiledRule.Step root = generateClasses ? RuleClassGenerator.generate(expression.getRoot(), library) : null;
+        if (root == null) {
+            root = compile(expression.getRoot());
+        }
+        return new CompiledRule(root, expression.getSharedNodeCount());
+    }
+
+    private CompiledRule.Step compile(Node node) {
+        switch (node.getKind()) {
+            case CONSTANT:
+                Constant constant = ((ConstantNode) node).getConstant();
+                return calculator -> constant;
+            case VARIABLE:
+                VariableNode variable = (VariableNode) node;
+                return calculator -> calculator.getVariable(variable);
+            case XPATH:
+                XPathNode xPathNode = (XPathNode) node;
+                String path = xPathNode.getPath();
+                if (xPathNode.isSequence()) {
+                    return calculator -> calculator.processXPathSequence(path);
+                }
+                return calculator -> calculator.processXPath(path);
+            case CONDITION:
+                return compileCondition((ConditionNode) node);
+            case OPERATOR:
+                return compileOperator((OperatorNode) node);
+            case SHARED:
+                SharedNode shared = (SharedNode) node;
+                int slot = shared.getSlot();
+                CompiledRule.Step step = compile(shared.getNode());
+                return calculator -> calculator.processShared(slot, step);
+            case LIST:
+                return compileList((ListNode) node);
+            default:
+                return calculator -> calculator.evaluate(node);
+        }
+    }
+
+    private CompiledRule.Step compileCondition(ConditionNode condition) {
+        CompiledRule.Step ifStep = compile(condition.getIfNode());
+        CompiledRule.Step thenStep = compile(condition.getThenNode());
+        CompiledRule.Step elseStep = compile(condition.getElseNode());
+        return calculator -> calculator.isTrue(ifStep.evaluate(calculator))
+                ? thenStep.evaluate(calculator)
+                : elseStep.evaluate(calculator);
+    }
+
+    private CompiledRule.Step compileOperator(OperatorNode operator) {
+        Operator.Type type = operator.getOperatorType();
+        if (library.getRealization(type) == null) {
+            return calculator -> calculator.evaluate(operator);
+        }
+        CompiledRule.Step left = operator.getLeft() == null ? null : compile(operator.getLeft());
+        CompiledRule.Step right = operator.getRight() == null ? null : compile(operator.getRight());
+        if ((type == Operator.Type.AND || type == Operator.Type.OR) && left != null) {
+            return calculator -> {
+                Expression leftValue = left.evaluate(calculator);
+                Constant result = calculator.shortCircuit(type, leftValue);
+                if (result != null) {
+                    return result;
+                }
+                return library.apply(type, leftValue, right == null ? null : right.evaluate(calculator));
+            };
+        }
+        if (left == null && right == null) {
+            return calculator -> library.apply(type, null, null);
+        }
+        if (left == null) {
+            return calculator -> library.apply(type, null, right.evaluate(calculator));
+        }
+        if (right == null) {
+            return calculator -> library.apply(type, left.evaluate(calculator), null);
+        }
+        return calculator -> library.apply(type, left.evaluate(calculator), right.evaluate(calculator));
+    }
+
+    private CompiledRule.Step compileList(ListNode list) {
+        CompiledRule.Step[] items = new CompiledRule.Step[list.size()];
+        for (int i = 0; i < items.length; ++i) {
+            items[i] = compile(list.at(i));
+        }
+        return calculator -> {
+            Expression values = new Expression(items.length);
+            for (CompiledRule.Step item : items) {
+                values.addPart(item.evaluate(calculator));
+            }
+            return values;
+        };
+    }
+}
@@ -0,0 +1,101 @@
+package org.xmlevaluator.evaluator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Path made only of element names, like {@code /root/a/b} or {@code //xbrli:period/xbrli:startDate}, optionally
+ * ending with an attribute step {@code @name}. Such paths can be resolved without a full XPath engine, by a
+ * {@link DocumentIndex} or a {@link StreamingExtractor}; both resolve prefixes as XPath does.
+ */
+public class SimplePath {
+    private final String path;
+    private final boolean anywhere;
+    private final String[] steps;
+    private final String attribute;
+
+    private SimplePath(String path, boolean anywhere, String[] steps, String attribute) {
+        this.path = path;
+        this.anywhere = anywhere;
+        this.steps = steps;
+        this.attribute = attribute;
+    }
+
+    // Returns null if the path is not a simple one.
+    public static SimplePath parse(String path) {
+        String trimmed = path.trim();
+        boolean anywhere;
+        if (trimmed.startsWith("//")) {
+            anywhere = true;
+            trimmed = trimmed.substring(2);
+        } else if (trimmed.startsWith("/")) {
+            anywhere = false;
+            trimmed = trimmed.substring(1);
+        } else {
+            return null;
+        }
+        String attribute = null;
+        List<String> steps = new ArrayList<>();
+        for (String step : trimmed.split("/", -1)) {
+            if (attribute != null) {
+                return null;
+            }
+            if (step.startsWith("@")) {
+                step = step.substring(1);
+                if (!isName(step) || steps.isEmpty()) {
+                    return null;
+                }
+                attribute = step;
+            } else if (isName(step)) {
+                steps.add(step);
+            } else {
+                return null;
+            }
+        }
+        return new SimplePath(path, anywhere, steps.toArray(new String[0]), attribute);
+    }
+
+    // An NCName or a prefixed name with a single colon. Axis steps like child::b aren't names, so paths with them are
+    // left to the XPath engine.
+    private static boolean isName(String step) {
+        int colon = step.indexOf(':');
+        if (colon < 0) {
+            return isNCName(step, 0, step.length());
+        }
+        return isNCName(step, 0, colon) && isNCName(step, colon + 1, step.length());
+    }
+
+    private static boolean isNCName(String step, int from, int to) {
+        if (from == to || !(Character.isLetter(step.charAt(from)) || step.charAt(from) == '_')) {
+            return false;
+        }
+        for (int i = from + 1; i < to; ++i) {
+            char c = step.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '_' && c != '-' && c != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    // True for paths starting with '//'.
+    public boolean isAnywhere() {
+        return anywhere;
+    }
+
+    public int getStepCount() {
+        return steps.length;
+    }
+
+    public String getStep(int index) {
+        return steps[index];
+    }
+
+    public String getAttribute() {
+        return attribute;
+    }
+}
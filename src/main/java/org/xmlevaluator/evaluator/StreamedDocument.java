@@ -0,0 +1,43 @@
+package org.xmlevaluator.evaluator;
+
+import org.xmlevaluator.dto.Constant;
+import org.xmlevaluator.dto.Sequence;
+
+import java.util.Map;
+
+/**
+ * Values extracted from an XML document by a {@link StreamingExtractor}, one per path the rules refer to, and
+ * sequences of all values of the paths read by aggregate functions.
+ */
+public class StreamedDocument {
+    private final Map<String, Constant> values;
+    private final Map<String, Sequence> sequences;
+
+    StreamedDocument(Map<String, Constant> values, Map<String, Sequence> sequences) {
+        this.values = values;
+        this.sequences = sequences;
+    }
+
+    public boolean contains(String path) {
+        return values.containsKey(path);
+    }
+
+    public Sequence getSequence(String path) {
+        Sequence sequence = sequences.get(path);
+        if (sequence == null) {
+            throw new IllegalArgumentException("XPath " + path + " was not extracted from the document.");
+        }
+        return sequence;
+    }
+
+    public Constant getValue(String path) {
+        Constant value = values.get(path);
+        if (value == null) {
+            if (!values.containsKey(path)) {
+                throw new IllegalArgumentException("XPath " + path + " was not extracted from the document.");
+            }
+            throw new IllegalArgumentException("XPath " + path + " matched no nodes.");
+        }
+        return value;
+    }
+}
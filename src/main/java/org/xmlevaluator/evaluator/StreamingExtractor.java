@@ -0,0 +1,213 @@
+package org.xmlevaluator.evaluator;
+
+import org.xmlevaluator.compiled.*;
+import org.xmlevaluator.dto.Constant;
+import org.xmlevaluator.dto.ExpressionType;
+import org.xmlevaluator.dto.Sequence;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * Reads only the values the rules need from an XML document in one StAX pass, without building a DOM. Memory use
+ * depends on the depth of the document and the size of the extracted values, not on the size of the document, and
+ * reading stops as soon as every path got its value.
+ * <p>
+ * All XPath references of the rules have to be {@link SimplePath simple paths}. Like {@code Calculator} with a
+ * namespace-aware DOM document, names are matched by local name and namespace, prefixes of the paths being resolved with
+ * the declarations on the document element (see {@link DocumentNamespaces}), and the value of a path is the text
+ * content of the first matching element (or the first matching attribute).
+ * Paths read as sequences (arguments of aggregate functions) get the values of all matching elements, except
+ * elements nested into another match of the same path; the whole document is read when there are such paths.
+ */
+public class StreamingExtractor {
+    private final SimplePath[] paths;
+    // Whether paths[i] is read as a sequence.
+    private final boolean[] sequence;
+
+    public StreamingExtractor(RuleSet ruleSet) {
+        this(collectPaths(ruleSet), collectSequencePaths(ruleSet));
+    }
+
+    public StreamingExtractor(Collection<String> paths) {
+        this(paths, Collections.emptySet());
+    }
+
+    public StreamingExtractor(Collection<String> paths, Collection<String> sequencePaths) {
+        paths = new LinkedHashSet<>(paths);
+        sequencePaths = new LinkedHashSet<>(sequencePaths);
+        this.paths = new SimplePath[paths.size() + sequencePaths.size()];
+        this.sequence = new boolean[this.paths.length];
+        int index = 0;
+        for (String path : paths) {
+            this.paths[index++] = parse(path);
+        }
+        for (String path : sequencePaths) {
+            this.sequence[index] = true;
+            this.paths[index++] = parse(path);
+        }
+    }
+
+    private static SimplePath parse(String path) {
+        SimplePath simplePath = SimplePath.parse(path);
+        if (simplePath == null) {
+            throw new IllegalArgumentException("XPath " + path + " can't be evaluated in streaming mode.");
+        }
+        return simplePath;
+    }
+
+    // Paths whose first matched value is used.
+    public static Set<String> collectPaths(RuleSet ruleSet) {
+        return collectPaths(ruleSet, false);
+    }
+
+    // Paths read as sequences of all matched values.
+    public static Set<String> collectSequencePaths(RuleSet ruleSet) {
+        return collectPaths(ruleSet, true);
+    }
+
+    private static Set<String> collectPaths(RuleSet ruleSet, boolean sequence) {
+        Set<String> paths = new LinkedHashSet<>();
+        NodeRewriter collector = new NodeRewriter() {
+            @Override
+            protected Node visit(Node node) {
+                if (node instanceof XPathNode && ((XPathNode) node).isSequence() == sequence) {
+                    paths.add(((XPathNode) node).getPath());
+                }
+                return node;
+            }
+        };
+        for (int i = 0; i < ruleSet.size(); ++i) {
+            collector.rewrite(ruleSet.get(i));
+        }
+        return paths;
+    }
+
+    public StreamedDocument extract(InputStream input) throws XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        XMLStreamReader reader = factory.createXMLStreamReader(input);
+        try {
+            return extract(reader);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private StreamedDocument extract(XMLStreamReader reader) throws XMLStreamException {
+        Map<String, Constant> values = new HashMap<>();
+        Map<String, List<String>> sequenceValues = new HashMap<>();
+        int remaining = 0;
+        for (int i = 0; i < paths.length; ++i) {
+            if (sequence[i]) {
+                sequenceValues.put(paths[i].getPath(), new ArrayList<>());
+            } else {
+                values.put(paths[i].getPath(), null);
+                ++remaining;
+            }
+        }
+        boolean readAll = !sequenceValues.isEmpty();
+        boolean[] found = new boolean[paths.length];
+        StringBuilder[] captures = new StringBuilder[paths.length];
+        int[] captureDepth = new int[paths.length];
+        List<String> openElements = new ArrayList<>();
+        // Names of the steps and of the attributes of the paths, resolved on the document element.
+        String[][] steps = null;
+        String[] attributes = null;
+
+        while ((remaining > 0 || readAll) && reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (steps == null) {
+                    DocumentNamespaces namespaces = DocumentNamespaces.of(reader);
+                    steps = new String[paths.length][];
+                    attributes = new String[paths.length];
+                    for (int i = 0; i < paths.length; ++i) {
+                        steps[i] = new String[paths[i].getStepCount()];
+                        for (int j = 0; j < steps[i].length; ++j) {
+                            steps[i][j] = namespaces.resolveName(paths[i].getStep(j), paths[i]);
+                        }
+                        if (paths[i].getAttribute() != null) {
+                            attributes[i] = namespaces.resolveName(paths[i].getAttribute(), paths[i]);
+                        }
+                    }
+                }
+                openElements.add(DocumentNamespaces.qualify(reader.getNamespaceURI(), reader.getLocalName()));
+                for (int i = 0; i < paths.length; ++i) {
+                    if (found[i] || captures[i] != null || !matches(paths[i], steps[i], openElements)) {
+                        continue;
+                    }
+                    if (attributes[i] == null) {
+                        captures[i] = new StringBuilder();
+                        captureDepth[i] = openElements.size();
+                        continue;
+                    }
+                    String value = getAttribute(reader, attributes[i]);
+                    if (value != null && sequence[i]) {
+                        sequenceValues.get(paths[i].getPath()).add(value);
+                    } else if (value != null) {
+                        found[i] = true;
+                        --remaining;
+                        values.put(paths[i].getPath(), new Constant(value, ExpressionType.STRING));
+                    }
+                }
+            } else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+                    || event == XMLStreamConstants.SPACE) {
+                for (int i = 0; i < paths.length; ++i) {
+                    if (captures[i] != null) {
+                        captures[i].append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                for (int i = 0; i < paths.length; ++i) {
+                    if (captures[i] == null || captureDepth[i] != openElements.size()) {
+                        continue;
+                    }
+                    if (sequence[i]) {
+                        sequenceValues.get(paths[i].getPath()).add(captures[i].toString());
+                    } else {
+                        found[i] = true;
+                        --remaining;
+                        values.put(paths[i].getPath(), new Constant(captures[i].toString(), ExpressionType.STRING));
+                    }
+                    captures[i] = null;
+                }
+                openElements.remove(openElements.size() - 1);
+            }
+        }
+
+        Map<String, Sequence> sequences = new HashMap<>();
+        for (Map.Entry<String, List<String>> entry : sequenceValues.entrySet()) {
+            sequences.put(entry.getKey(), new Sequence(entry.getValue().toArray(new String[0])));
+        }
+        return new StreamedDocument(values, sequences);
+    }
+
+    // Checks whether the innermost of the open elements is selected by the element steps of the path.
+    private static boolean matches(SimplePath path, String[] steps, List<String> openElements) {
+        int depth = openElements.size();
+        if (path.isAnywhere() ? depth < steps.length : depth != steps.length) {
+            return false;
+        }
+        for (int i = 0; i < steps.length; ++i) {
+            if (!steps[i].equals(openElements.get(depth - steps.length + i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String getAttribute(XMLStreamReader reader, String name) {
+        for (int i = 0; i < reader.getAttributeCount(); ++i) {
+            if (name.equals(DocumentNamespaces.qualify(reader.getAttributeNamespace(i), reader.getAttributeLocalName(i)))) {
+                return reader.getAttributeValue(i);
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,94 @@
+package org.xmlevaluator.evaluator;
+
+import org.xmlevaluator.compiled.VariableLayout;
+import org.xmlevaluator.compiled.VariableNode;
+import org.xmlevaluator.dto.Constant;
+import org.xmlevaluator.dto.ExpressionType;
+
+/**
+ * Values of variables bound to the slots of a {@link VariableLayout}. A calculator given a frame reads variables of
+ * compiled expressions by their slot; variables of other layouts and of trees are still found by name. Values are
+ * typed when they are bound, so nothing is parsed or allocated when they are read. A frame is immutable and can be
+ * shared between threads.
+ */
+public class VariableFrame {
+    private final VariableLayout layout;
+    private final Constant[] values;
+
+    private VariableFrame(VariableLayout layout, Constant[] values) {
+        this.layout = layout;
+        this.values = values;
+    }
+
+    public static Builder builder(VariableLayout layout) {
+        return new Builder(layout);
+    }
+
+    public VariableLayout getLayout() {
+        return layout;
+    }
+
+    // Value of the variable or null if it isn't bound.
+    public Constant get(String name) {
+        int slot = layout.getSlot(name);
+        return slot == -1 ? null : values[slot];
+    }
+
+    Constant get(VariableNode node) {
+        int slot = node.getSlot();
+        if (slot >= 0 && slot < values.length && layout.getName(slot).equals(node.getName())) {
+            return values[slot];
+        }
+        return get(node.getName());
+    }
+
+    /**
+     * Fills slots of a frame. Look slots up once with {@link VariableLayout#getSlot(String)} to bind many frames of
+     * the same layout. The builder can be reused: {@link #build()} copies the values bound so far.
+     */
+    public static class Builder {
+        private final VariableLayout layout;
+        private final Constant[] values;
+
+        private Builder(VariableLayout layout) {
+            this.layout = layout;
+            this.values = new Constant[layout.size()];
+        }
+
+        public Builder set(int slot, Constant value) {
+            value.freeze();
+            values[slot] = value;
+            return this;
+        }
+
+        public Builder setLong(int slot, long value) {
+            return set(slot, new Constant(value));
+        }
+
+        public Builder setDouble(int slot, double value) {
+            return set(slot, new Constant(value));
+        }
+
+        // Date as seconds from the epoch.
+        public Builder setDate(int slot, long epochSecond) {
+            return set(slot, Constant.ofDate(epochSecond));
+        }
+
+        public Builder setString(int slot, String value) {
+            return set(slot, new Constant(value, ExpressionType.STRING));
+        }
+
+        // Same as VariableStorage.pushVariable; variables the layout doesn't have are skipped.
+        public Builder set(String name, String value, ExpressionType type) {
+            int slot = layout.getSlot(name);
+            if (slot != -1) {
+                set(slot, new Constant(value, type));
+            }
+            return this;
+        }
+
+        public VariableFrame build() {
+            return new VariableFrame(layout, values.clone());
+        }
+    }
+}
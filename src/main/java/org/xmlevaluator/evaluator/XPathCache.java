@@ -0,0 +1,100 @@
+package org.xmlevaluator.evaluator;
+
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Compiled XPath expressions keyed by their path. {@link XPath} and {@link XPathExpression} objects are not
+ * thread-safe, so every thread gets its own {@link XPath} and its own least-recently-used map of at most
+ * {@code capacity} expressions. Prefixes are resolved when a path is compiled, so a path compiled with a namespace
+ * context is kept apart from the same path compiled with other bindings or none.
+ */
+public class XPathCache {
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private static final XPathCache DEFAULT = new XPathCache(DEFAULT_CAPACITY);
+
+    private final int capacity;
+    private final ThreadLocal<Entries> entries = ThreadLocal.withInitial(Entries::new);
+
+    public static XPathCache getDefault() {
+        return DEFAULT;
+    }
+
+    public XPathCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity should be positive.");
+        }
+        this.capacity = capacity;
+    }
+
+    public XPathExpression get(String path) throws XPathExpressionException {
+        return get(path, null);
+    }
+
+    // Namespaces are null to leave prefixes unbound.
+    public XPathExpression get(String path, NamespaceContext namespaces) throws XPathExpressionException {
+        Entries threadEntries = entries.get();
+        Object key = namespaces == null ? path : new Key(path, namespaces);
+        XPathExpression expression = threadEntries.get(key);
+        if (expression == null) {
+            if (namespaces == null) {
+                expression = threadEntries.xpath.compile(path);
+            } else {
+                threadEntries.namespacedXPath.setNamespaceContext(namespaces);
+                expression = threadEntries.namespacedXPath.compile(path);
+            }
+            threadEntries.put(key, expression);
+        }
+        return expression;
+    }
+
+    // Number of expressions cached for the current thread.
+    public int size() {
+        return entries.get().size();
+    }
+
+    private static final class Key {
+        private final String path;
+        private final NamespaceContext namespaces;
+
+        Key(String path, NamespaceContext namespaces) {
+            this.path = path;
+            this.namespaces = namespaces;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key that = (Key) o;
+            return path.equals(that.path) && namespaces.equals(that.namespaces);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, namespaces);
+        }
+    }
+
+    // Keys are paths, or Keys for paths compiled with namespaces.
+    private class Entries extends LinkedHashMap<Object, XPathExpression> {
+        private final XPath xpath = XPathFactory.newInstance().newXPath();
+        private final XPath namespacedXPath = XPathFactory.newInstance().newXPath();
+
+        Entries() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Object, XPathExpression> eldest) {
+            return size() > capacity;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package org.xmlevaluator.evaluator;
+
+import org.xmlevaluator.dto.Constant;
+import org.xmlevaluator.dto.Sequence;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Values of XPath references already read from the document of a {@link Calculator}, so every distinct path is
+ * evaluated once per document however many rules refer to it. A calculator can't be given another document, so the
+ * memo only has to be cleared when the document itself is modified. Like the calculator, it is not thread-safe.
+ * <p>
+ * The memo also keeps the {@link DocumentIndex} simple paths are read with.
+ * <p>
+ * Calculators evaluating parts of one rule set on several threads have memos falling back to a shared memo filled
+ * before they start, see {@link ParallelEvaluator}. The shared memo is only read then, so no locking is needed; it
+ * isn't counted by {@link #size()} and isn't cleared by {@link #clear()}.
+ */
+public class XPathMemo {
+    private final Map<String, Constant> values = new HashMap<>();
+    private final Map<String, Sequence> sequences = new HashMap<>();
+    private final XPathMemo shared;
+    private DocumentIndex documentIndex;
+    private long hits;
+    private long misses;
+
+    public XPathMemo() {
+        this(null);
+    }
+
+    XPathMemo(XPathMemo shared) {
+        this.shared = shared;
+    }
+
+    Constant getValue(String path) {
+        Constant value = values.get(path);
+        if (value == null && shared != null) {
+            value = shared.values.get(path);
+        }
+        return count(value);
+    }
+
+    void putValue(String path, Constant value) {
+        value.freeze();
+        values.put(path, value);
+    }
+
+    Sequence getSequence(String path) {
+        Sequence sequence = sequences.get(path);
+        if (sequence == null && shared != null) {
+            sequence = shared.sequences.get(path);
+        }
+        return count(sequence);
+    }
+
+    void putSequence(String path, Sequence sequence) {
+        sequences.put(path, sequence);
+    }
+
+    DocumentIndex getDocumentIndex() {
+        if (documentIndex == null && shared != null) {
+            return shared.documentIndex;
+        }
+        return documentIndex;
+    }
+
+    void setDocumentIndex(DocumentIndex documentIndex) {
+        this.documentIndex = documentIndex;
+    }
+
+    private <T> T count(T value) {
+        if (value == null) {
+            ++misses;
+        } else {
+            ++hits;
+        }
+        return value;
+    }
+
+    // Number of paths with a remembered value.
+    public int size() {
+        return values.size() + sequences.size();
+    }
+
+    public long getHitCount() {
+        return hits;
+    }
+
+    public long getMissCount() {
+        return misses;
+    }
+
+    // Share of lookups answered without evaluating XPath, 0 when there were no lookups.
+    public double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    // Forgets all values and the index, e.g. after the document was modified. Statistics are kept.
+    public void clear() {
+        values.clear();
+        sequences.clear();
+        documentIndex = null;
+    }
+}
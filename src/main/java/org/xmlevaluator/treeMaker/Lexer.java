@@ -0,0 +1,151 @@
+package org.xmlevaluator.treeMaker;
+
+/**
+ * Splits a query into tokens without copying it: a token is only a kind and offsets into the query. Bracket pairs are
+ * matched once for the whole query, so a group token is produced in constant time and its content is read only when
+ * the parser descends into it. Tokens never cross the end of the range they are read from; an XPath and an
+ * {@code if} take the rest of the range.
+ */
+class Lexer {
+    enum Kind {
+        GROUP,
+        VARIABLE,
+        STRING,
+        XPATH,
+        SYMBOL,
+        CONDITION,
+        WORD,
+    }
+
+    static final class Token {
+        private final Kind kind;
+        private final int start;
+        private final int end;
+
+        Token(Kind kind, int start, int end) {
+            this.kind = kind;
+            this.start = start;
+            this.end = end;
+        }
+
+        Kind getKind() {
+            return kind;
+        }
+
+        // Offset of the first character of the token.
+        int getStart() {
+            return start;
+        }
+
+        // Offset after the last character of the token.
+        int getEnd() {
+            return end;
+        }
+    }
+
+    private static final String SPECIAL_SYMBOLS = " ,+*/()=";
+    private static final String ARITHMETIC_SYMBOLS = "+-*/=";
+
+    private final String query;
+    // For an opening bracket, the offset of the bracket closing it or -1.
+    private final int[] closingBrackets;
+
+    Lexer(String query) {
+        this.query = query;
+        this.closingBrackets = matchBrackets(query);
+    }
+
+    private static int[] matchBrackets(String query) {
+        int[] closingBrackets = new int[query.length()];
+        int[] openBrackets = new int[query.length()];
+        int depth = 0;
+        for (int i = 0; i < query.length(); ++i) {
+            if (query.charAt(i) == '(') {
+                closingBrackets[i] = -1;
+                openBrackets[depth++] = i;
+            } else if (query.charAt(i) == ')' && depth > 0) {
+                closingBrackets[openBrackets[--depth]] = i;
+            }
+        }
+        return closingBrackets;
+    }
+
+    static boolean isVariableNameSymbol(char c) {
+        return (Character.isLetter(c) || Character.isDigit(c) || c == ':');
+    }
+
+    String getQuery() {
+        return query;
+    }
+
+    // Returns the next token of [position; end) or null if only separators are left.
+    Token next(int position, int end) {
+        while (position < end && (query.charAt(position) == ' ' || query.charAt(position) == ',')) {
+            ++position;
+        }
+        if (position >= end) {
+            return null;
+        }
+        char c = query.charAt(position);
+        if (c == '(') {
+            int closingBracket = closingBrackets[position];
+            if (closingBracket == -1 || closingBracket >= end) {
+                throw new UnsupportedOperationException("Found unmatched opening bracket.");
+            }
+            if (closingBracket - position <= 1) {
+                throw new UnsupportedOperationException("Found empty brackets.");
+            }
+            return new Token(Kind.GROUP, position, closingBracket + 1);
+        }
+        if (c == '$') {
+            int tokenEnd = position + 1;
+            while (tokenEnd < end && isVariableNameSymbol(query.charAt(tokenEnd))) {
+                ++tokenEnd;
+            }
+            if (tokenEnd - position <= 1) {
+                throw new UnsupportedOperationException("Found mistake in the variable name.");
+            }
+            return new Token(Kind.VARIABLE, position, tokenEnd);
+        }
+        if (c == '\'') {
+            int closingQuote = indexOf('\'', position + 1, end);
+            if (closingQuote == -1) {
+                throw new IllegalArgumentException("Incorrect constant provided.");
+            }
+            return new Token(Kind.STRING, position, closingQuote + 1);
+        }
+        if (c == '/' && position + 1 < end && query.charAt(position + 1) == '/') {
+            return new Token(Kind.XPATH, position, end);
+        }
+        if (ARITHMETIC_SYMBOLS.indexOf(c) != -1) {
+            return new Token(Kind.SYMBOL, position, position + 1);
+        }
+        if (c == 'i' && position + 1 < end && query.charAt(position + 1) == 'f') {
+            return new Token(Kind.CONDITION, position, end);
+        }
+        int tokenEnd = position + 1;
+        while (tokenEnd < end && SPECIAL_SYMBOLS.indexOf(query.charAt(tokenEnd)) == -1) {
+            ++tokenEnd;
+        }
+        return new Token(Kind.WORD, position, tokenEnd);
+    }
+
+    int indexOf(char c, int from, int end) {
+        for (int i = from; i < end; ++i) {
+            if (query.charAt(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Position of the first occurrence of word lying entirely inside [from; end) or -1.
+    int indexOf(String word, int from, int end) {
+        for (int i = from; i + word.length() <= end; ++i) {
+            if (query.startsWith(word, i)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,54 @@
+package org.xmlevaluator.treeMaker;
+
+import org.xmlevaluator.dto.Constant;
+import org.xmlevaluator.dto.ExpressionType;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Canonical constants for the literals of parsed queries, so a literal repeated across the queries of a rulebook is
+ * kept once. Constants are immutable, so sharing them is safe. The pool is bounded: when it is full, new literals get
+ * constants of their own, while those already pooled are still shared.
+ */
+public class LiteralPool {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final int capacity;
+    // Keyed by the literal as it is written: the type of a number follows from its text, strings keep their quote.
+    private final ConcurrentHashMap<String, Constant> constants = new ConcurrentHashMap<>();
+
+    public LiteralPool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public LiteralPool(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity should be positive.");
+        }
+        this.capacity = capacity;
+    }
+
+    public Constant get(String value, ExpressionType type) {
+        String key = type == ExpressionType.STRING ? "'" + value : value;
+        Constant constant = constants.get(key);
+        if (constant != null) {
+            return constant;
+        }
+        constant = new Constant(value, type);
+        if (constants.size() < capacity) {
+            Constant existing = constants.putIfAbsent(key, constant);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        return constant;
+    }
+
+    public int size() {
+        return constants.size();
+    }
+
+    public void clear() {
+        constants.clear();
+    }
+}
@@ -0,0 +1,99 @@
+package org.xmlevaluator.treeMaker;
+
+import org.xmlevaluator.dto.Operator;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable table of operator and function names. Names are kept in a trie, so a token is looked up straight from the
+ * query by its offsets in time proportional to its length, without making a string of it. The default table holds
+ * {@link Operator.Type#getStringType()} of every type; more names (e.g. aliases of functions) are registered with
+ * {@link #with(String, Operator.Type)}, which returns a new table.
+ */
+public class OperatorTable {
+    private static final OperatorTable DEFAULT = new OperatorTable(defaultSymbols());
+
+    private final Map<String, Operator.Type> symbols;
+    private final TrieNode root = new TrieNode();
+
+    public static OperatorTable getDefault() {
+        return DEFAULT;
+    }
+
+    public OperatorTable(Map<String, Operator.Type> symbols) {
+        this.symbols = Collections.unmodifiableMap(new LinkedHashMap<>(symbols));
+        for (Map.Entry<String, Operator.Type> symbol : this.symbols.entrySet()) {
+            if (symbol.getKey().isEmpty() || symbol.getValue() == null) {
+                throw new IllegalArgumentException("Operator name and type should be present.");
+            }
+            root.insert(symbol.getKey(), symbol.getValue());
+        }
+    }
+
+    private static Map<String, Operator.Type> defaultSymbols() {
+        Map<String, Operator.Type> symbols = new LinkedHashMap<>();
+        for (Operator.Type type : Operator.Type.values()) {
+            symbols.put(type.getStringType(), type);
+        }
+        return symbols;
+    }
+
+    public OperatorTable with(String name, Operator.Type type) {
+        Map<String, Operator.Type> extended = new LinkedHashMap<>(symbols);
+        extended.put(name, type);
+        return new OperatorTable(extended);
+    }
+
+    public Map<String, Operator.Type> getSymbols() {
+        return symbols;
+    }
+
+    // Type registered for the characters [from; to) of s or null if there is no such name.
+    public Operator.Type find(CharSequence s, int from, int to) {
+        TrieNode node = root;
+        for (int i = from; i < to && node != null; ++i) {
+            node = node.child(s.charAt(i));
+        }
+        return node == null ? null : node.type;
+    }
+
+    public Operator.Type find(CharSequence s) {
+        return find(s, 0, s.length());
+    }
+
+    // Filled only in the constructor of the table and never changed afterwards.
+    private static class TrieNode {
+        private char[] keys = new char[0];
+        private TrieNode[] children = new TrieNode[0];
+        private Operator.Type type;
+
+        TrieNode child(char c) {
+            for (int i = 0; i < keys.length; ++i) {
+                if (keys[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        void insert(String name, Operator.Type type) {
+            TrieNode node = this;
+            for (int i = 0; i < name.length(); ++i) {
+                TrieNode next = node.child(name.charAt(i));
+                if (next == null) {
+                    next = new TrieNode();
+                    int size = node.keys.length;
+                    node.keys = Arrays.copyOf(node.keys, size + 1);
+                    node.children = Arrays.copyOf(node.children, size + 1);
+                    node.keys[size] = name.charAt(i);
+                    node.children[size] = next;
+                }
+                node = next;
+            }
+            node.type = type;
+        }
+    }
+}
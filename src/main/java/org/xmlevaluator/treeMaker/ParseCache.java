@@ -0,0 +1,103 @@
+package org.xmlevaluator.treeMaker;
+
+import org.xmlevaluator.dto.Tree;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Concurrent cache of parsed trees keyed by query. Lookups are lock-free; when the cache grows over its capacity,
+ * entries are evicted in CLOCK order (an approximation of LRU: recently used entries get a second chance).
+ * Cached trees are frozen because they are shared by all callers.
+ */
+public class ParseCache {
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private final int capacity;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Entry> clock = new ConcurrentLinkedQueue<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ParseCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ParseCache(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity should be positive.");
+        }
+        this.capacity = capacity;
+    }
+
+    public Tree get(String query, Function<String, Tree> parser) {
+        Entry entry = entries.get(query);
+        if (entry != null) {
+            entry.referenced = true;
+            hits.increment();
+            return entry.tree;
+        }
+        misses.increment();
+        Tree tree = parser.apply(query);
+        tree.getRoot().freeze();
+
+        Entry created = new Entry(query, tree);
+        Entry existing = entries.putIfAbsent(query, created);
+        if (existing != null) {
+            return existing.tree;
+        }
+        clock.add(created);
+        evictIfNeeded();
+        return tree;
+    }
+
+    private void evictIfNeeded() {
+        while (entries.size() > capacity) {
+            Entry candidate = clock.poll();
+            if (candidate == null) {
+                return;
+            }
+            if (candidate.referenced) {
+                candidate.referenced = false;
+                clock.add(candidate);
+            } else if (entries.remove(candidate.query, candidate)) {
+                evictions.increment();
+            }
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public void clear() {
+        entries.clear();
+        clock.clear();
+    }
+
+    private static class Entry {
+        private final String query;
+        private final Tree tree;
+        private volatile boolean referenced;
+
+        Entry(String query, Tree tree) {
+            this.query = query;
+            this.tree = tree;
+        }
+    }
+}
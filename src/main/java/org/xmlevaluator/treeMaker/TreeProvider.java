@@ -1,22 +1,70 @@
 package org.xmlevaluator.treeMaker;
 
+import org.xmlevaluator.OperatorsRealizationLibrary;
+import org.xmlevaluator.compiled.CommonSubexpressionEliminator;
+import org.xmlevaluator.compiled.CompiledExpression;
+import org.xmlevaluator.compiled.ConstantFolder;
+import org.xmlevaluator.compiled.ExpressionCompiler;
+import org.xmlevaluator.compiled.RuleSet;
+import org.xmlevaluator.compiled.VariableResolver;
 import org.xmlevaluator.dto.*;
 
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses queries into {@link Tree}s. A {@link Lexer} reads tokens by offsets and the parser descends into brackets and
+ * {@code if} branches by ranges of the original query, so every character is read a constant number of times and no
+ * substrings are made except for the values of leaves. Operators and literals are immutable and shared: operators
+ * by {@link Operator#of(Operator.Type)}, literals by the {@link LiteralPool} of the provider.
+ */
 public class TreeProvider {
 
-    private static final String SPECIAL_SYMBOLS = " ,+*/()=";
-    private static final String ARITHMETIC_SYMBOLS = "+-*/=";
+    private final ExpressionCompiler compiler = new ExpressionCompiler();
+    private final ConstantFolder constantFolder = new ConstantFolder(OperatorsRealizationLibrary.getDefault());
+    private final OperatorTable operatorTable;
+    private final ParseCache parseCache;
+    private final LiteralPool literalPool;
+
+    public TreeProvider() {
+        this(OperatorTable.getDefault(), null);
+    }
+
+    // Trees built by this provider are taken from the cache and therefore frozen.
+    public TreeProvider(ParseCache parseCache) {
+        this(OperatorTable.getDefault(), parseCache);
+    }
+
+    public TreeProvider(OperatorTable operatorTable) {
+        this(operatorTable, null);
+    }
+
+    // The cache is keyed by query only, so it shouldn't be shared with providers using other operator tables.
+    public TreeProvider(OperatorTable operatorTable, ParseCache parseCache) {
+        this(operatorTable, parseCache, new LiteralPool());
+    }
+
+    // Literals of all trees built by this provider are taken from the pool; share it to share them between providers.
+    public TreeProvider(OperatorTable operatorTable, ParseCache parseCache, LiteralPool literalPool) {
+        this.operatorTable = operatorTable;
+        this.parseCache = parseCache;
+        this.literalPool = literalPool;
+    }
 
     public boolean isVariableNameSymbol(char c) {
-        return (Character.isLetter(c) || Character.isDigit(c) || c == ':');
+        return Lexer.isVariableNameSymbol(c);
     }
 
     // 0 - not a number
     // 1 - integer
     // 2 - double
     public Integer isNumber(String s) {
+        return isNumber(s, 0, s.length());
+    }
+
+    private int isNumber(String s, int from, int to) {
         boolean isDouble = false, isNegative = false;
-        for (int i = 0; i < s.length(); ++i) {
+        for (int i = from; i < to; ++i) {
             if (!Character.isDigit(s.charAt(i))) {
                 if (s.charAt(i) == '.') {
                     if (isDouble) {
@@ -40,121 +88,97 @@ public class TreeProvider {
         }
     }
 
-    private int findPositionAfterNextClosingBracket(String query, int startIndex) {
-        int balance = 1;
-        int endIndex = -1;
-        for (int i = startIndex + 1; i < query.length(); ++i) {
-            if (query.charAt(i) == '(') {
-                ++balance;
-            } else if (query.charAt(i) == ')') {
-                --balance;
-            }
-            if (balance == 0) {
-                endIndex = i + 1;
-                break;
-            }
+    public Condition evaluateCondition(String query, int startIndex) {
+        return parseCondition(new Lexer(query), startIndex, query.length());
+    }
+
+    public Expression parseQuery(String query) {
+        return parse(new Lexer(query), 0, query.length());
+    }
+
+    private Expression parse(Lexer lexer, int from, int to) {
+        Expression expression = new Expression();
+        for (Lexer.Token token = lexer.next(from, to); token != null; token = lexer.next(token.getEnd(), to)) {
+            expression.addPart(parseToken(lexer, token));
         }
-        if (endIndex == -1) {
-            throw new UnsupportedOperationException("Found unmatched opening bracket.");
+        if (expression.getPartsCount() == 1) {
+            return expression.at(0);
         }
-        if (endIndex - startIndex <= 2) {
-            throw new UnsupportedOperationException("Found empty brackets.");
+        return expression;
+    }
+
+    private Expression parseToken(Lexer lexer, Lexer.Token token) {
+        String query = lexer.getQuery();
+        int start = token.getStart();
+        int end = token.getEnd();
+        switch (token.getKind()) {
+            case GROUP:
+                return parse(lexer, start + 1, end - 1);
+            case VARIABLE:
+                return new Variable(query.substring(start + 1, end));
+            case STRING:
+                return literalPool.get(query.substring(start + 1, end - 1), ExpressionType.STRING);
+            case XPATH:
+                return new XPathElement(query.substring(start, end));
+            case CONDITION:
+                return parseCondition(lexer, start, end);
+            case WORD:
+                int numberType = isNumber(query, start, end);
+                if (numberType == 1) {
+                    return literalPool.get(query.substring(start, end), ExpressionType.INTEGER);
+                } else if (numberType == 2) {
+                    return literalPool.get(query.substring(start, end), ExpressionType.DOUBLE);
+                }
+                return parseOperator(query, start, end);
+            default:
+                return parseOperator(query, start, end);
         }
-        return endIndex;
     }
 
-    public Condition evaluateCondition(String query, int startIndex) {
-        int thenIndex = query.indexOf("then", startIndex);
+    private Operator parseOperator(String query, int start, int end) {
+        Operator.Type operatorType = operatorTable.find(query, start, end);
+        if (operatorType == null) {
+            throw new UnsupportedOperationException("Found unknown operator " + query.substring(start, end) + ".");
+        }
+        return Operator.of(operatorType);
+    }
+
+    // Parses "if ... then ... else ..." starting at startIndex; the 'else' branch takes the rest of [startIndex; to).
+    private Condition parseCondition(Lexer lexer, int startIndex, int to) {
+        int thenIndex = lexer.indexOf("then", startIndex, to);
         if (thenIndex == -1) {
             throw new UnsupportedOperationException("'then' operator is not present after 'if'.");
         }
-        int elseIndex = query.indexOf("else", thenIndex + 1);
+        int elseIndex = lexer.indexOf("else", thenIndex + 1, to);
         if (elseIndex == -1) {
             throw new UnsupportedOperationException("'else' operator is not present after 'if'.");
         }
-        String ifQuery = query.substring(startIndex + 2, thenIndex);
-        String thenQuery = query.substring(thenIndex + 4, elseIndex);
-        String elseQuery = query.substring(elseIndex + 4);
-
-        Expression ifExpression = parseQuery(ifQuery);
-        Expression thenExpression = parseQuery(thenQuery);
-        Expression elseExpression = parseQuery(elseQuery);
+        Expression ifExpression = parse(lexer, startIndex + 2, thenIndex);
+        Expression thenExpression = parse(lexer, thenIndex + 4, elseIndex);
+        Expression elseExpression = parse(lexer, elseIndex + 4, to);
 
         return new Condition(ifExpression, thenExpression, elseExpression);
     }
 
-    public Expression parseQuery(String query) {
-        Expression expression = new Expression();
-        for (int startIndex = 0; startIndex < query.length(); ) {
-            if (query.charAt(startIndex) == ' ' || query.charAt(startIndex) == ',') {
-                ++startIndex;
-                continue;
-            }
-            int endIndex = startIndex + 1; // substring is [firstIndex; endIndex)
-            if (query.charAt(startIndex) == '(') {
-                endIndex = findPositionAfterNextClosingBracket(query, startIndex);
-                Expression currentExpression = parseQuery(query.substring(startIndex + 1, endIndex - 1));
-                expression.addPart(currentExpression);
-            } else if (query.charAt(startIndex) == '$') {
-                while (endIndex < query.length() && isVariableNameSymbol(query.charAt(endIndex))) {
-                    ++endIndex;
-                }
-                if (endIndex - startIndex <= 1) {
-                    throw new UnsupportedOperationException("Found mistake in the variable name.");
-                }
-                expression.addPart(new Variable(query.substring(startIndex + 1, endIndex)));
-            } else if (query.charAt(startIndex) == '\'') {
-                endIndex = query.indexOf('\'', startIndex + 1);
-                if (endIndex == -1 || endIndex == startIndex) {
-                    throw new IllegalArgumentException("Incorrect constant provided.");
-                }
-                String constant = query.substring(startIndex + 1, endIndex);
-                expression.addPart(new Constant(constant, ExpressionType.STRING));
-                ++endIndex;
-            } else if (startIndex + 1 < query.length() && query.substring(startIndex, startIndex + 2).equals("//")) {
-                expression.addPart(new XPathElement(query.substring(startIndex)));
-                endIndex = query.length();
-            } else if (ARITHMETIC_SYMBOLS.indexOf(query.charAt(startIndex)) != -1) {
-                String operatorName = query.substring(startIndex, endIndex);
-                int operatorTypeNumber;
-                if ((operatorTypeNumber = Operator.Type.getAllStringTypes().indexOf(operatorName)) == -1) {
-                    throw new UnsupportedOperationException("Found unknown operator " + operatorName + ".");
-                }
-                expression.addPart(new Operator(Operator.Type.values()[operatorTypeNumber]));
-            } else if (startIndex + 1 < query.length() && query.substring(startIndex, startIndex + 2).equals("if")) {
-                expression.addPart(evaluateCondition(query, startIndex));
-                endIndex = query.length();
-            } else {
-                for (; endIndex < query.length() && SPECIAL_SYMBOLS.indexOf(query.charAt(endIndex)) == -1; ++endIndex) {
-
-                }
-                String queryPart = query.substring(startIndex, endIndex);
-                int numberType = isNumber(queryPart);
-                if (numberType != 0) {
-                    if (numberType == 1) {
-                        expression.addPart(new Constant(queryPart, ExpressionType.INTEGER));
-                    } else {
-                        expression.addPart(new Constant(queryPart, ExpressionType.DOUBLE));
-                    }
-                } else {
-                    String operatorName = queryPart;
-                    int operatorTypeNumber;
-                    if ((operatorTypeNumber = Operator.Type.getAllStringTypes().indexOf(operatorName)) == -1) {
-                        throw new UnsupportedOperationException("Found unknown operator " + operatorName + ".");
-                    }
-                    expression.addPart(new Operator(Operator.Type.values()[operatorTypeNumber]));
-                }
-
-            }
-            startIndex = endIndex;
-        }
-        if (expression.getPartsCount() == 1) {
-            return expression.at(0);
+    public Tree buildTree(String query) {
+        if (parseCache != null) {
+            return parseCache.get(query, q -> new Tree(parseQuery(q)));
         }
-        return expression;
+        return new Tree(parseQuery(query));
     }
 
-    public Tree buildTree(String query) {
-        return new Tree(parseQuery(query));
+    // Constant subtrees are folded with the default library, repeated subexpressions are shared and variables get
+    // slots; use ExpressionCompiler directly to get the plain structure.
+    public CompiledExpression compile(String query) {
+        CompiledExpression expression = constantFolder.rewrite(compiler.compile(buildTree(query)));
+        return VariableResolver.resolve(CommonSubexpressionEliminator.eliminate(expression));
+    }
+
+    public RuleSet compileAll(List<String> queries) {
+        List<CompiledExpression> expressions = new ArrayList<>(queries.size());
+        for (String query : queries) {
+            expressions.add(compile(query));
+        }
+        return new RuleSet(expressions);
     }
 }
@@ -1,15 +1,55 @@
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.xmlevaluator.OperatorsRealizationLibrary;
+import org.w3c.dom.Document;
+import org.w3c.dom.NodeList;
+import org.xmlevaluator.compiled.CompiledExpression;
+import org.xmlevaluator.compiled.RuleSet;
+import org.xmlevaluator.compiled.VariableLayout;
 import org.xmlevaluator.dto.*;
 import org.xmlevaluator.evaluator.Calculator;
+import org.xmlevaluator.evaluator.CompiledRule;
+import org.xmlevaluator.evaluator.DocumentIndex;
+import org.xmlevaluator.evaluator.EvaluationContext;
+import org.xmlevaluator.evaluator.ParallelEvaluator;
+import org.xmlevaluator.evaluator.PrimitiveRule;
+import org.xmlevaluator.evaluator.PrimitiveRuleCompiler;
+import org.xmlevaluator.evaluator.RuleCompiler;
+import org.xmlevaluator.evaluator.SimplePath;
+import org.xmlevaluator.evaluator.VariableFrame;
+import org.xmlevaluator.evaluator.XPathCache;
 import org.xmlevaluator.treeMaker.TreeProvider;
 
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathFactory;
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
-
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 public class CalculatorTest {
     TreeProvider treeProvider;
@@ -536,4 +576,715 @@ public class CalculatorTest {
 
         assertEquals("2:3:0:0:0:0", result.getValue());
     }
+
+    @Test
+    public void durations_ParsedAsMonthsAndSeconds() {
+        Object[][] cases = {
+                {"xsd:yearMonthDuration('P14M')", "1:2:0:0:0:0"},
+                {"xsd:yearMonthDuration('P1Y')", "1:0:0:0:0:0"},
+                {"xsd:dayTimeDuration('P1DT25H')", "0:0:2:1:0:0"},
+                {"xsd:dayTimeDuration('PT90S')", "0:0:0:0:1:30"},
+                {"xsd:dayTimeDuration('-P1D')", "0:0:-1:0:0:0"},
+                {"xsd:yearMonthDuration('P14M') = xsd:yearMonthDuration('P1Y2M')", 1},
+                {"xsd:dayTimeDuration('PT24H') = xsd:dayTimeDuration('P1D')", 1},
+                {"xsd:date('2000-03-01') + xsd:dayTimeDuration('-P1D')", getDateFromString("2000-02-29 00:00:00")},
+        };
+        String[] invalid = {"xsd:dayTimeDuration('P')", "xsd:dayTimeDuration('P1DT')", "xsd:dayTimeDuration('PT1M1H')",
+                "xsd:dayTimeDuration('P1Y')", "xsd:yearMonthDuration('P1M1Y')", "xsd:yearMonthDuration('1Y')",
+                "xsd:yearMonthDuration('P1D')"};
+
+        for (Object[] testCase : cases) {
+            String query = (String) testCase[0];
+            assertEquals(testCase[1], calculator.evaluate(treeProvider.buildTree(query)).getValue(), query);
+            assertEquals(testCase[1], calculator.evaluate(treeProvider.compile(query)).getValue(), query);
+        }
+        for (String query : invalid) {
+            assertThrows(IllegalArgumentException.class, () -> calculator.evaluate(treeProvider.compile(query)), query);
+        }
+    }
+
+    @Test
+    public void compiled_MatchesInterpretedResults() {
+        String[] queries = {
+                "2 + 2",
+                "1 + 7 / 2.8",
+                "(1 + 7) / 2.8",
+                "'str' eq 'str'",
+                "max(1,  7 / 2.8)",
+                "xsd:date('2022-12-12') + xsd:dayTimeDuration('P1DT2H')",
+                "if (max(xsd:date($varDate1),xsd:date($varDate2))=xsd:date($varDate2) or 2+3=4) then 'YES' else 'NO'",
+                "if ((fn:day-from-date($par:refPeriodEnd)=30) and (fn:month-from-date($par:refPeriodEnd)=6)) then ($par:refPeriodEnd - xsd:yearMonthDuration('P3M') + xsd:dayTimeDuration('P1D')) else ($par:refPeriodEnd - xsd:yearMonthDuration('P3M'))",
+                "xsd:date(fn:concat(xsd:string(fn:year-from-date($test5) - 1),'-12-31'))",
+                "xsd:date($test81) - xsd:yearMonthDuration(if($test82 eq 'I') then 'P1Y' else 'P2Y')",
+                "xsd:yearMonthDuration('P2Y3M')",
+        };
+        for (String query : queries) {
+            Result interpreted = calculator.evaluate(treeProvider.buildTree(query));
+            Result compiled = calculator.evaluate(treeProvider.compile(query));
+
+            assertEquals(interpreted, compiled, query);
+        }
+    }
+
+    @Test
+    public void compiled_ReusedForSeveralEvaluations() {
+        CompiledExpression expression = treeProvider.compile("$varNumThree * $varNumFour - 2");
+
+        for (int i = 0; i < 3; ++i) {
+            Result result = calculator.evaluate(expression);
+
+            assertEquals(ExpressionType.INTEGER, result.getType());
+            assertEquals(10, (Integer) result.getValue());
+        }
+    }
+
+    @Test
+    public void MinOfDates() {
+        tree = treeProvider.buildTree("min(xsd:date($varDate2), xsd:date($varDate1))");
+
+        Result result = calculator.evaluate(tree);
+
+        assertEquals(ExpressionType.DATE, result.getType());
+        assertEquals("2022-12-12 00:00:00", result.getStringValue());
+    }
+
+    @Test
+    public void TypedConstantFormattedOnDemand() {
+        tree = treeProvider.buildTree("xsd:string($varNumThree * 2.5)");
+
+        Result result = calculator.evaluate(tree);
+
+        assertEquals(ExpressionType.STRING, result.getType());
+        assertEquals("7.5", result.getValue());
+    }
+
+    @Test
+    public void compiled_SharedBetweenThreads() throws Exception {
+        CompiledExpression expression = treeProvider.compile("if ((fn:month-from-date($test4)=3) or (fn:month-from-date($test4)=12) or (fn:month-from-date($test4)=9)) then ($test4 - xsd:yearMonthDuration('P3M')) else ($test4 - xsd:yearMonthDuration('P3M') + xsd:dayTimeDuration('P1D'))");
+        OperatorsRealizationLibrary library = OperatorsRealizationLibrary.getDefault();
+        Date need = getDateFromString("2000-06-30 00:00:00");
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; ++t) {
+                futures.add(executor.submit(() -> {
+                    VariableStorage storage = new VariableStorage();
+                    storage.pushVariable("test4", "2000-09-30", ExpressionType.DATE);
+                    Calculator threadCalculator = new Calculator(library, storage, null);
+                    int mismatches = 0;
+                    for (int i = 0; i < 2000; ++i) {
+                        Result result = threadCalculator.evaluate(expression);
+                        if (!need.equals(result.getValue())) {
+                            ++mismatches;
+                        }
+                    }
+                    return mismatches;
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                assertEquals(0, future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    public Document parseDocument(String xml) throws Exception {
+        return DocumentBuilderFactory.newInstance().newDocumentBuilder()
+                .parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void XPathValueTest() throws Exception {
+        Document document = parseDocument("<root><dateVar>2020-01-20</dateVar><num>3</num></root>");
+        Calculator documentCalculator = new Calculator(document);
+
+        Result result = documentCalculator.evaluate(treeProvider.compile("xsd:date(//dateVar) + xsd:dayTimeDuration('P1D')"));
+
+        assertEquals(ExpressionType.DATE, result.getType());
+        assertEquals(getDateFromString("2020-01-21 00:00:00"), result.getValue());
+    }
+
+    @Test
+    public void XPathCacheReusesCompiledPaths() throws Exception {
+        XPathCache cache = new XPathCache(2);
+
+        XPathExpression first = cache.get("//a");
+        assertSame(first, cache.get("//a"));
+
+        cache.get("//b");
+        cache.get("//c");
+        assertEquals(2, cache.size());
+        assertNotSame(first, cache.get("//a"));
+
+        XPathExpression[] otherThread = new XPathExpression[1];
+        Thread thread = new Thread(() -> {
+            try {
+                otherThread[0] = cache.get("//b");
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        thread.start();
+        thread.join();
+        assertNotSame(cache.get("//b"), otherThread[0]);
+    }
+
+    @Test
+    public void evaluateAll_SharesCommonParts() throws Exception {
+        Document document = parseDocument("<root><num>3</num><date>2020-01-20</date></root>");
+        VariableStorage storage = new VariableStorage();
+        storage.pushVariable("a", "5", ExpressionType.INTEGER);
+        Calculator documentCalculator = new Calculator(storage, document);
+        RuleSet ruleSet = treeProvider.compileAll(Arrays.asList(
+                "$a + 1",
+                "($a + 1) * 2",
+                "xsd:date(//date) + xsd:dayTimeDuration('P1D')",
+                "fn:day-from-date(xsd:date(//date))",
+                "$a + 1"));
+
+        Result[] results = documentCalculator.evaluateAll(ruleSet);
+
+        assertEquals(2, ruleSet.getSharedNodeCount());
+        assertEquals(5, results.length);
+        assertEquals(6, results[0].getValue());
+        assertEquals(12, results[1].getValue());
+        assertEquals(getDateFromString("2020-01-21 00:00:00"), results[2].getValue());
+        assertEquals(20, results[3].getValue());
+        assertEquals(6, results[4].getValue());
+    }
+
+    @Test
+    public void compiled_RepeatedSubexpressionEvaluatedOnce() {
+        AtomicInteger applied = new AtomicInteger();
+        OperatorsRealizationLibrary countingLibrary = new OperatorsRealizationLibrary() {
+            @Override
+            public BiFunction<Expression, Expression, Constant> getRealization(Operator.Type type) {
+                BiFunction<Expression, Expression, Constant> realization = super.getRealization(type);
+                return (left, right) -> {
+                    applied.incrementAndGet();
+                    return realization.apply(left, right);
+                };
+            }
+        };
+        VariableStorage storage = new VariableStorage();
+        storage.pushVariable("a", "5", ExpressionType.INTEGER);
+        Calculator countingCalculator = new Calculator(countingLibrary, storage, null);
+        CompiledExpression expression = treeProvider.compile("($a * 2 + 1) * ($a * 2 + 1)");
+
+        assertEquals(121, countingCalculator.evaluate(expression).getValue());
+        assertEquals(3, applied.get());
+        assertEquals(121, countingCalculator.evaluate(expression).getValue());
+        assertEquals(6, applied.get());
+    }
+
+    @Test
+    public void shortCircuit_RightOperandSkipped() throws Exception {
+        Document document = parseDocument("<root><num>3</num></root>");
+        VariableStorage storage = new VariableStorage();
+        storage.pushVariable("varNumThree", "3", ExpressionType.INTEGER);
+        Calculator documentCalculator = new Calculator(storage, document);
+        String[] queries = {
+                "($varNumThree = 2) and ((//missing) = 'x')",
+                "($varNumThree = 3) or ((//missing) = 'x')",
+                "if ($varNumThree = 2) then (//missing) else ((//num) = '3')",
+        };
+
+        for (String query : queries) {
+            assertEquals(query.contains(" and ") ? 0 : 1, documentCalculator.evaluate(treeProvider.buildTree(query)).getValue());
+            assertEquals(query.contains(" and ") ? 0 : 1, documentCalculator.evaluate(treeProvider.compile(query)).getValue());
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> documentCalculator.evaluate(treeProvider.buildTree("($varNumThree = 3) and ((//missing) = 'x')")));
+        assertThrows(IllegalArgumentException.class,
+                () -> documentCalculator.evaluate(treeProvider.compile("($varNumThree = 2) or ((//missing) = 'x')")));
+    }
+
+    @Test
+    public void shortCircuit_FoldedWithConstantLeftOperand() {
+        CompiledExpression expression = treeProvider.compile("(1 = 2) and ((//missing) = 'x')");
+
+        assertEquals(0, calculator.evaluate(expression).getValue());
+    }
+
+    @Test
+    public void aggregates_OverAllMatchedNodes() throws Exception {
+        Document document = parseDocument("<root><fact>3</fact><fact> 10 </fact><fact>4</fact>"
+                + "<price>1.5</price><price>2</price><date>2020-01-20</date><date>2021-03-01</date></root>");
+        Calculator documentCalculator = new Calculator(document);
+        Object[][] cases = {
+                {"max(//fact)", 10},
+                {"min(//fact)", 3},
+                {"sum(//fact)", 17},
+                {"count(//fact)", 3},
+                {"avg(//price)", 1.75},
+                {"sum((//fact), (//price), 1)", 21.5},
+                {"max((//fact), 12)", 12},
+                {"count(//missing)", 0},
+                {"sum(//missing)", 0},
+                {"exists(//missing)", 0},
+                {"exists(//fact)", 1},
+                {"max(//date)", getDateFromString("2021-03-01 00:00:00")},
+                {"if (exists(//date)) then min(//date) else xsd:date('2016-01-01')", getDateFromString("2020-01-20 00:00:00")},
+        };
+
+        for (Object[] testCase : cases) {
+            String query = (String) testCase[0];
+            assertEquals(testCase[1], documentCalculator.evaluate(treeProvider.buildTree(query)).getValue(), query);
+            assertEquals(testCase[1], documentCalculator.evaluate(treeProvider.compile(query)).getValue(), query);
+        }
+        assertThrows(IllegalArgumentException.class, () -> documentCalculator.evaluate(treeProvider.compile("max(//missing)")));
+        assertThrows(IllegalArgumentException.class, () -> documentCalculator.evaluate(treeProvider.compile("sum(//date)")));
+    }
+
+    @Test
+    public void xPathMemo_PathReadOncePerDocument() throws Exception {
+        Document document = parseDocument("<root><num>3</num><date>2020-01-20</date></root>");
+        Calculator documentCalculator = new Calculator(document);
+
+        assertEquals(20, documentCalculator.evaluate(treeProvider.compile("fn:day-from-date(xsd:date(//date))")).getValue());
+        assertEquals(2020, documentCalculator.evaluate(treeProvider.compile("fn:year-from-date(xsd:date(//date))")).getValue());
+        assertEquals(1, documentCalculator.evaluate(treeProvider.buildTree("fn:month-from-date(xsd:date(//date))")).getValue());
+
+        assertEquals(1, documentCalculator.getXPathMemo().getMissCount());
+        assertEquals(2, documentCalculator.getXPathMemo().getHitCount());
+        assertEquals(2.0 / 3, documentCalculator.getXPathMemo().getHitRatio(), 1e-9);
+
+        document.getElementsByTagName("date").item(0).setTextContent("2021-05-07");
+        documentCalculator.getXPathMemo().clear();
+        assertEquals(7, documentCalculator.evaluate(treeProvider.compile("fn:day-from-date(xsd:date(//date))")).getValue());
+        assertEquals(2, documentCalculator.getXPathMemo().getMissCount());
+    }
+
+    @Test
+    public void dates_DurationsAddedAsXsd() {
+        Object[][] cases = {
+                {"xsd:date('2000-01-31') + xsd:yearMonthDuration('P1M')", "2000-02-29 00:00:00"},
+                {"xsd:date('2000-02-29') + xsd:yearMonthDuration('P1Y1M')", "2001-03-29 00:00:00"},
+                {"xsd:date('2000-03-31') - xsd:yearMonthDuration('P1M')", "2000-02-29 00:00:00"},
+                {"xsd:date('1999-12-31 23:00:00') + xsd:dayTimeDuration('P1DT1H30M')", "2000-01-02 00:30:00"},
+                {"xsd:date('0001-01-01') - xsd:dayTimeDuration('P1D')", "0001-12-31 00:00:00"},
+        };
+
+        for (Object[] testCase : cases) {
+            String query = (String) testCase[0];
+            Result result = calculator.evaluate(treeProvider.buildTree(query));
+            assertEquals(ExpressionType.DATE, result.getType(), query);
+            assertEquals(testCase[1], result.getStringValue(), query);
+        }
+        assertEquals(28, calculator.evaluate(treeProvider.buildTree("fn:day-from-date(xsd:date('2023-02-31'))")).getValue());
+        assertEquals(1, calculator.evaluate(treeProvider.buildTree("xsd:date('2020-01-01 24:00:00') = xsd:date('2020-01-02')")).getValue());
+    }
+
+    @Test
+    public void compiledRule_SameResultsAsCompiledExpression() {
+        RuleCompiler ruleCompiler = new RuleCompiler();
+        String[] queries = {
+                "($varNumThree + 7) * $varNumFour - 12 / 4 + 2.5 * ($varNumThree - $varNumFour)",
+                "$par:refPeriodEnd - xsd:yearMonthDuration('P3M') + xsd:dayTimeDuration('P1D')",
+                "if ((fn:day-from-date($par:refPeriodEnd)=30) and (fn:month-from-date($par:refPeriodEnd)=6)) "
+                        + "then ($par:refPeriodEnd - xsd:yearMonthDuration('P3M')) else $varDate1",
+                "max(5, 3, 7, 3 * 4) - min(5.5, 3, 2)",
+                "($varNumThree = 2) and ($varNumFour = 4)",
+                "($varNumThree = 3) or ($varNumFour = 4)",
+                "($varNumThree * 2 + 1) * ($varNumThree * 2 + 1)",
+                "fn:concat('I', $test72, 'Q')",
+        };
+
+        for (String query : queries) {
+            CompiledExpression expression = treeProvider.compile(query);
+            assertEquals(calculator.evaluate(expression).getValue(), ruleCompiler.compile(expression).evaluate(calculator).getValue(), query);
+            assertEquals(calculator.evaluate(expression).getValue(), calculator.evaluate(ruleCompiler.compile(treeProvider.buildTree(query))).getValue(), query);
+        }
+        assertThrows(IllegalArgumentException.class, () -> ruleCompiler.compile(treeProvider.compile("$missing + 1")).evaluate(calculator));
+    }
+
+    @Test
+    public void compiledRule_UnsupportedOperatorLeftToCalculator() {
+        OperatorsRealizationLibrary noConcat = new OperatorsRealizationLibrary() {
+            @Override
+            public BiFunction<Expression, Expression, Constant> getRealization(Operator.Type type) {
+                return type == Operator.Type.FN_CONCAT ? null : super.getRealization(type);
+            }
+        };
+        CompiledRule rule = new RuleCompiler(noConcat).compile(treeProvider.compile("fn:concat('a', $test72) = 'aI'"));
+
+        assertEquals(1, rule.evaluate(calculator).getValue());
+        VariableStorage storage = new VariableStorage();
+        storage.pushVariable("test72", "I", ExpressionType.STRING);
+        // Operands are evaluated before the library reports the operator.
+        assertThrows(UnsupportedOperationException.class, () -> rule.evaluate(new Calculator(noConcat, storage, null)));
+    }
+
+    @Test
+    public void compiledRule_GeneratedClassesSameAsSteps() throws Exception {
+        Document document = parseDocument("<root><num>3</num><num>4</num><date>2020-01-20</date></root>");
+        VariableStorage storage = new VariableStorage();
+        storage.pushVariable("a", "5", ExpressionType.INTEGER);
+        storage.pushVariable("d", "2000-06-30", ExpressionType.DATE);
+        Calculator documentCalculator = new Calculator(storage, document);
+        List<String> queries = Arrays.asList(
+                "($a * 2 + 1) * ($a * 2 + 1)",
+                "($a = 2) and ((//missing) = 'x')",
+                "($a = 5) or ((//missing) = 'x')",
+                "($a = 5) and ($a * 2 + 1 = 11)",
+                "if ($a = 2) then (//missing) else (max(//num) + count(//num))",
+                "max(5, 3, 7, 3 * 4) - min(5.5, 3, 2)",
+                "fn:day-from-date(xsd:date(//date) + xsd:dayTimeDuration('P1D')) + fn:month-from-date($d - xsd:yearMonthDuration('P3M'))",
+                "fn:concat('I', xsd:string($a * 2 + 1), 'Q')");
+        RuleCompiler generating = new RuleCompiler();
+        RuleCompiler steps = new RuleCompiler(OperatorsRealizationLibrary.getDefault(), false);
+
+        for (String query : queries) {
+            CompiledExpression expression = treeProvider.compile(query);
+            Result expected = steps.compile(expression).evaluate(documentCalculator);
+            assertEquals(documentCalculator.evaluate(expression), expected, query);
+            assertEquals(expected, generating.compile(expression).evaluate(documentCalculator), query);
+        }
+        // Slots of a rule set are shared between the generated classes of its rules.
+        RuleSet ruleSet = treeProvider.compileAll(queries);
+        Result[] expected = documentCalculator.evaluateAll(ruleSet);
+        for (int i = 0; i < queries.size(); ++i) {
+            assertEquals(expected[i], generating.compile(ruleSet.get(i)).evaluate(documentCalculator), queries.get(i));
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> generating.compile(treeProvider.compile("($a = 5) and ((//missing) = 'x')")).evaluate(documentCalculator));
+
+        // Too large for a method of a class, so compiled into steps.
+        String largeQuery = balancedSum(1, 3001);
+        assertEquals(5 * 3000 * 3001 / 2, generating.compile(treeProvider.compile(largeQuery)).evaluate(documentCalculator).getValue());
+    }
+
+    // $a * from + ... + $a * (to - 1), nested no deeper than the logarithm of the number of terms.
+    private static String balancedSum(int from, int to) {
+        if (to - from == 1) {
+            return "($a * " + from + ")";
+        }
+        int middle = (from + to) / 2;
+        return "(" + balancedSum(from, middle) + " + " + balancedSum(middle, to) + ")";
+    }
+
+    @Test
+    public void operatorsRealizationLibrary_ApplySameAsRealizations() {
+        VariableStorage storage = new VariableStorage();
+        storage.pushVariable("a", "3", ExpressionType.INTEGER);
+        storage.pushVariable("d", "2000-06-30", ExpressionType.DATE);
+        storage.pushVariable("s", "I", ExpressionType.STRING);
+        // Operators of a subclass are always applied through getRealization.
+        Calculator viaRealizations = new Calculator(new OperatorsRealizationLibrary() {}, storage, null);
+        Calculator direct = new Calculator(storage);
+        String[] queries = {
+                "($a + 7) * $a - 12 / 4 + 2.5 * ($a - 1)",
+                "($a = 3) and ($a eq 4) or ($a = 3)",
+                "max(5, 3, $a * 4) - min(5.5, 3, 2) + sum(1, 2) + count(1, 2, 3) + avg(1, 2)",
+                "if (exists(1)) then fn:year-from-date($d) + fn:month-from-date($d) + fn:day-from-date($d) else 0",
+                "$d - xsd:yearMonthDuration('P3M') + xsd:dayTimeDuration('P1D')",
+                "xsd:date('2020-01-01') = xsd:date($d)",
+                "fn:concat('I', xsd:string(5), 'Q')",
+        };
+
+        for (String query : queries) {
+            Result expected = viaRealizations.evaluate(treeProvider.buildTree(query));
+            assertEquals(expected, direct.evaluate(treeProvider.buildTree(query)), query);
+            assertEquals(expected, direct.evaluate(treeProvider.compile(query)), query);
+            assertEquals(expected, new RuleCompiler().compile(treeProvider.compile(query)).evaluate(direct), query);
+        }
+
+        OperatorsRealizationLibrary minusForPlus = new OperatorsRealizationLibrary() {
+            @Override
+            public BiFunction<Expression, Expression, Constant> getRealization(Operator.Type type) {
+                return super.getRealization(type == Operator.Type.PLUS ? Operator.Type.MINUS : type);
+            }
+        };
+        assertEquals(2, minusForPlus.apply(Operator.Type.PLUS, Constant.of(5), Constant.of(3)).getLongValue());
+        assertEquals(8, OperatorsRealizationLibrary.getDefault().apply(Operator.Type.PLUS, Constant.of(5), Constant.of(3)).getLongValue());
+    }
+
+    @Test
+    public void variableFrame_SameResultsAsStorage() {
+        List<String> queries = Arrays.asList(
+                "($varNumThree + 7) * $varNumFour - $varNumThree",
+                "if (fn:day-from-date($par:refPeriodEnd) = 30) then $varDate1 else $varDate2",
+                "($test72 = 'I') and ($test82 = 'Q')");
+        RuleSet ruleSet = treeProvider.compileAll(queries);
+        VariableLayout layout = ruleSet.getVariableLayout();
+        VariableFrame frame = VariableFrame.builder(layout)
+                .setLong(layout.getSlot("varNumThree"), 3)
+                .set("varNumFour", "4", ExpressionType.INTEGER)
+                .set("par:refPeriodEnd", "2000-06-30", ExpressionType.DATE)
+                .set("varDate1", "2022-12-12", ExpressionType.DATE)
+                .set("varDate2", "2023-12-12", ExpressionType.DATE)
+                .setString(layout.getSlot("test72"), "I")
+                .set("test82", "Q", ExpressionType.STRING)
+                .set("unused", "1", ExpressionType.INTEGER)
+                .build();
+        Calculator frameCalculator = new Calculator(frame);
+
+        Result[] expected = calculator.evaluateAll(ruleSet);
+        Result[] results = frameCalculator.evaluateAll(ruleSet);
+        for (int i = 0; i < queries.size(); ++i) {
+            String query = queries.get(i);
+            assertEquals(expected[i], results[i], query);
+            // Expressions compiled on their own have other layouts and trees have none: variables are found by name.
+            assertEquals(expected[i], frameCalculator.evaluate(treeProvider.compile(query)), query);
+            assertEquals(expected[i], frameCalculator.evaluate(treeProvider.buildTree(query)), query);
+            assertEquals(expected[i], new RuleCompiler().compile(ruleSet.get(i)).evaluate(frameCalculator), query);
+        }
+        VariableFrame partial = VariableFrame.builder(layout).setLong(layout.getSlot("varNumThree"), 3).build();
+        assertThrows(IllegalArgumentException.class, () -> new Calculator(partial).evaluate(ruleSet.get(0)));
+    }
+
+    @Test
+    public void primitiveRule_SameResultsAsCompiledRule() {
+        PrimitiveRuleCompiler primitiveCompiler = new PrimitiveRuleCompiler();
+        String[] queries = {
+                "($varNumThree + 7) * $varNumFour - 12 / 4 + 2.5 * ($varNumThree - $varNumFour)",
+                "$par:refPeriodEnd - xsd:yearMonthDuration('P3M') + xsd:dayTimeDuration('P1D')",
+                "xsd:yearMonthDuration('P1Y') + $par:refPeriodEnd",
+                "if ((fn:day-from-date($par:refPeriodEnd)=30) and (fn:month-from-date($par:refPeriodEnd)=6)) "
+                        + "then ($par:refPeriodEnd - xsd:yearMonthDuration('P3M')) else $varDate1",
+                "fn:year-from-date(xsd:date($par:refPeriodEnd)) = 2000",
+                "max(5, 3, 7, 3 * 4) - min(5.5, 3, 2)",
+                "($varNumThree = 2) and ($varNumFour = 4)",
+                "($varNumThree = 3) or ($varNumFour = 4)",
+                "($varNumThree * 2 + 1) * ($varNumThree * 2 + 1)",
+                "$varDate1 eq $varDate2",
+                "fn:concat('I', $test72, 'Q')",
+        };
+
+        for (String query : queries) {
+            CompiledExpression expression = treeProvider.compile(query);
+            assertEquals(calculator.evaluate(expression), primitiveCompiler.compile(expression).evaluate(calculator).getResult(), query);
+        }
+        EvaluationContext context = primitiveCompiler.compile(treeProvider.compile("$varNumThree * 2.5")).evaluate(calculator);
+        assertEquals(ExpressionType.DOUBLE, context.getType());
+        assertEquals(7.5, context.getDoubleValue());
+        assertThrows(IllegalArgumentException.class, () -> primitiveCompiler.compile(treeProvider.compile("$missing + 1")).evaluate(calculator));
+        assertThrows(IllegalArgumentException.class, () -> primitiveCompiler.compile(treeProvider.compile("if ($varDate1) then 1 else 2")).evaluate(calculator));
+    }
+
+    @Test
+    public void primitiveRule_AllocatesNothingOnceWarm() {
+        RuleSet ruleSet = treeProvider.compileAll(Arrays.asList(
+                "if ((fn:day-from-date($par:refPeriodEnd) = 30) and ($varNumThree * 2 + 1 = 7)) "
+                        + "then $par:refPeriodEnd - xsd:yearMonthDuration('P3M') + xsd:dayTimeDuration('P1D') "
+                        + "else $varDate1",
+                "($varNumThree + 7) * $varNumFour - 12 / 4 + 2.5 * ($varNumThree - $varNumFour)"));
+        VariableLayout layout = ruleSet.getVariableLayout();
+        VariableFrame frame = VariableFrame.builder(layout)
+                .setLong(layout.getSlot("varNumThree"), 3)
+                .set("varNumFour", "4", ExpressionType.INTEGER)
+                .set("par:refPeriodEnd", "2000-06-30", ExpressionType.DATE)
+                .set("varDate1", "2022-12-12", ExpressionType.DATE)
+                .build();
+        Calculator frameCalculator = new Calculator(frame);
+        PrimitiveRule dateRule = new PrimitiveRuleCompiler().compile(ruleSet.get(0));
+        PrimitiveRule numericRule = new PrimitiveRuleCompiler().compile(ruleSet.get(1));
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) threadBean;
+        assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+        long checksum = 0;
+        for (int i = 0; i < 10000; ++i) {
+            checksum += dateRule.evaluate(frameCalculator).getEpochSecond();
+            checksum += (long) numericRule.evaluate(frameCalculator).getDoubleValue();
+        }
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < 1000; ++i) {
+            checksum += dateRule.evaluate(frameCalculator).getEpochSecond();
+            checksum += (long) numericRule.evaluate(frameCalculator).getDoubleValue();
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        assertEquals("2000-03-31 00:00:00", Dates.format(dateRule.evaluate(frameCalculator).getEpochSecond()));
+        assertEquals(34.5, numericRule.evaluate(frameCalculator).getDoubleValue());
+        assertTrue(checksum != 0);
+        // Boxed evaluation of the two rules takes hundreds of bytes; a few bytes per iteration are left to whatever
+        // else runs on the thread, e.g. an agent.
+        assertTrue(allocated <= 1000 * 16, allocated + " bytes allocated");
+    }
+
+    @Test
+    public void documentIndex_SameValuesAsXPath() throws Exception {
+        Document document = parseDocument("<root><a id='1'><b>x</b><c><b>y</b></c></a><b>z</b>"
+                + "<a><b>w</b></a><d><a id='2'><b>v</b></a></d></root>");
+        DocumentIndex index = new DocumentIndex(document);
+        String[] paths = {"//b", "//a/b", "/root/a/b", "/root/b", "//c/b", "//d/a/b", "/a", "//a/@id", "/root/a/@id",
+                "//d/a/@id", "//root", "//e", "//b/@id"};
+
+        for (String path : paths) {
+            NodeList nodes = (NodeList) XPathFactory.newInstance().newXPath()
+                    .evaluate(path, document, XPathConstants.NODESET);
+            String[] expected = new String[nodes.getLength()];
+            for (int i = 0; i < nodes.getLength(); ++i) {
+                expected[i] = nodes.item(i).getTextContent();
+            }
+            SimplePath simplePath = SimplePath.parse(path);
+            assertArrayEquals(expected, index.getValues(simplePath), path);
+            assertEquals(expected.length == 0 ? null : expected[0], index.getValue(simplePath), path);
+        }
+
+        Calculator documentCalculator = new Calculator(document);
+        assertEquals(3, documentCalculator.evaluate(treeProvider.compile("count(//a/b)")).getValue());
+        assertEquals("y", documentCalculator.evaluate(treeProvider.compile("//c/b")).getValue());
+        // Not a simple path, evaluated by JAXP.
+        assertEquals("w", documentCalculator.evaluate(treeProvider.compile("//a[2]/b")).getValue());
+        assertThrows(IllegalArgumentException.class, () -> documentCalculator.evaluate(treeProvider.compile("//e")));
+
+        // Axis steps aren't names, so such paths are evaluated by JAXP as well.
+        String[] axisPaths = {"//a/child::b", "//d/child::a/b", "//root/child::a/child::b", "//root/descendant::b"};
+        String axisXml = "<r xmlns:x='urn:x'><a><b>5</b></a></r>";
+        Calculator[] axisCalculators = {new Calculator(parseDocument(axisXml)),
+                new Calculator(parseNamespaceAwareDocument(axisXml))};
+        for (String path : axisPaths) {
+            assertEquals(null, SimplePath.parse(path), path);
+            NodeList nodes = (NodeList) XPathFactory.newInstance().newXPath()
+                    .evaluate(path, document, XPathConstants.NODESET);
+            assertEquals(nodes.item(0).getTextContent(), documentCalculator.evaluate(treeProvider.compile(path)).getValue(), path);
+            assertEquals(nodes.getLength(), documentCalculator.evaluate(treeProvider.compile("count(" + path + ")")).getValue(), path);
+        }
+        for (Calculator axisCalculator : axisCalculators) {
+            assertEquals("5", axisCalculator.evaluate(treeProvider.compile("//a/child::b")).getValue());
+        }
+        assertEquals(null, SimplePath.parse("/root/self::root/b"));
+        assertEquals(null, SimplePath.parse("//a:b:c"));
+        assertEquals(null, SimplePath.parse("//:b"));
+        assertEquals(null, SimplePath.parse("//a:"));
+    }
+
+    public Document parseNamespaceAwareDocument(String xml) throws Exception {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @Test
+    public void documentIndex_PrefixedNames() throws Exception {
+        String xml = "<xbrli:xbrl xmlns:xbrli='http://www.xbrl.org/2003/instance'>"
+                + "<xbrli:period><xbrli:startDate>2020-01-01</xbrli:startDate></xbrli:period>"
+                + "<xbrli:period><xbrli:startDate>2021-01-01</xbrli:startDate></xbrli:period></xbrli:xbrl>";
+        Calculator documentCalculator = new Calculator(parseNamespaceAwareDocument(xml));
+
+        assertEquals(getDateFromString("2021-01-01 00:00:00"),
+                documentCalculator.evaluate(treeProvider.compile("max(//xbrli:period/xbrli:startDate)")).getValue());
+        assertEquals("2020-01-01", documentCalculator.evaluate(treeProvider.compile("//xbrli:xbrl/xbrli:period/xbrli:startDate")).getValue());
+        // Not a simple path, evaluated by JAXP with the same prefixes.
+        assertEquals("2021-01-01", documentCalculator.evaluate(treeProvider.compile("//xbrli:period[2]/xbrli:startDate")).getValue());
+
+        // Without namespace awareness prefixes can't be resolved, whether the path is simple or not.
+        Calculator plainCalculator = new Calculator(parseDocument(xml));
+        assertThrows(IllegalArgumentException.class, () -> plainCalculator.evaluate(treeProvider.compile("//xbrli:period/xbrli:startDate")));
+        assertThrows(IllegalArgumentException.class, () -> plainCalculator.evaluate(treeProvider.compile("//xbrli:period/xbrli:startDate[1]")));
+        assertEquals(0, plainCalculator.evaluate(treeProvider.compile("count(//xbrli:period/xbrli:startDate)")).getValue());
+    }
+
+    @Test
+    public void documentIndex_SameNodesAsXPathWithNamespaces() throws Exception {
+        Document document = parseNamespaceAwareDocument("<root xmlns='urn:default' xmlns:p='urn:p' xmlns:q='urn:q'>"
+                + "<fact>1</fact><p:fact p:id='a' id='b'>2</p:fact><q:fact>3</q:fact>"
+                + "<p:group><fact xmlns=''>4</fact><p:fact>5</p:fact></p:group></root>");
+        DocumentIndex index = new DocumentIndex(document);
+        XPath xpath = XPathFactory.newInstance().newXPath();
+        xpath.setNamespaceContext(new NamespaceContext() {
+            @Override
+            public String getNamespaceURI(String prefix) {
+                return document.getDocumentElement().lookupNamespaceURI(prefix);
+            }
+
+            @Override
+            public String getPrefix(String namespaceURI) {
+                return null;
+            }
+
+            @Override
+            public Iterator<String> getPrefixes(String namespaceURI) {
+                return null;
+            }
+        });
+        String[] paths = {"//fact", "//p:fact", "//q:fact", "/root/fact", "//p:group/fact", "//p:group/p:fact",
+                "//p:fact/@p:id", "//p:fact/@id", "//fact/@id"};
+
+        for (String path : paths) {
+            NodeList nodes = (NodeList) xpath.evaluate(path, document, XPathConstants.NODESET);
+            String[] expected = new String[nodes.getLength()];
+            for (int i = 0; i < nodes.getLength(); ++i) {
+                expected[i] = nodes.item(i).getTextContent();
+            }
+            assertArrayEquals(expected, index.getValues(SimplePath.parse(path)), path);
+        }
+        assertArrayEquals(new String[]{"4"}, index.getValues(SimplePath.parse("//fact")));
+        assertThrows(IllegalArgumentException.class, () -> index.getValues(SimplePath.parse("//r:fact")));
+
+        Calculator documentCalculator = new Calculator(document);
+        assertEquals("2", documentCalculator.evaluate(treeProvider.compile("//p:fact")).getValue());
+        assertEquals("2", documentCalculator.evaluate(treeProvider.compile("//p:fact[1]")).getValue());
+        assertEquals("4", documentCalculator.evaluate(treeProvider.compile("//fact")).getValue());
+        assertEquals("4", documentCalculator.evaluate(treeProvider.compile("//fact[1]")).getValue());
+        assertThrows(IllegalArgumentException.class, () -> documentCalculator.evaluate(treeProvider.compile("//r:fact[1]")));
+    }
+
+    @Test
+    public void evaluateAll_TreesInOrder() {
+        Result[] results = calculator.evaluateAll(Arrays.asList(
+                treeProvider.buildTree("2 + 2"),
+                treeProvider.buildTree("'consta'"),
+                treeProvider.buildTree("$varNumThree * $varNumFour")));
+
+        assertEquals(4, results[0].getValue());
+        assertEquals("consta", results[1].getValue());
+        assertEquals(12, results[2].getValue());
+    }
+
+    @Test
+    public void parallel_SameResultsAsSequential() throws Exception {
+        List<String> queries = new ArrayList<>();
+        for (int i = 0; i < 200; ++i) {
+            queries.add("fn:day-from-date(xsd:date(//date) + xsd:dayTimeDuration('P" + i + "D')) * " + i);
+        }
+        RuleSet ruleSet = treeProvider.compileAll(queries);
+        VariableStorage storage = new VariableStorage();
+        List<Document> documents = new ArrayList<>();
+        for (int d = 1; d <= 3; ++d) {
+            documents.add(parseDocument("<root><num>" + d + "</num><date>2020-01-2" + d + "</date></root>"));
+        }
+
+        try (ParallelEvaluator evaluator = new ParallelEvaluator(4)) {
+            List<Result[]> byDocument = evaluator.evaluateAll(ruleSet, storage, documents);
+            Result[] byRule = evaluator.evaluateAll(ruleSet, storage, documents.get(0));
+
+            for (int d = 0; d < documents.size(); ++d) {
+                Result[] sequential = new Calculator(storage, documents.get(d)).evaluateAll(ruleSet);
+                assertEquals(Arrays.asList(sequential), Arrays.asList(byDocument.get(d)));
+            }
+            assertEquals(Arrays.asList(byDocument.get(0)), Arrays.asList(byRule));
+        }
+    }
+
+    @Test
+    public void parallel_PathsReadBeforeChunksSameAsSequential() throws Exception {
+        Document document = parseDocument("<root><num>3</num><num>4</num><date>2020-01-20</date></root>");
+        List<String> queries = new ArrayList<>();
+        for (int i = 0; i < 50; ++i) {
+            queries.add("sum(//num) * " + i);
+            queries.add("(//num[2]) = '4'");
+            queries.add("($a = 5) or ((//missing) = 'x')");
+            queries.add("fn:day-from-date(xsd:date(//date)) + " + i);
+        }
+        VariableStorage storage = new VariableStorage();
+        storage.pushVariable("a", "5", ExpressionType.INTEGER);
+        RuleSet ruleSet = treeProvider.compileAll(queries);
+
+        try (ParallelEvaluator evaluator = new ParallelEvaluator(4)) {
+            Result[] sequential = new Calculator(storage, document).evaluateAll(ruleSet);
+            assertEquals(Arrays.asList(sequential), Arrays.asList(evaluator.evaluateAll(ruleSet, storage, document)));
+
+            // A path which can't be read fails the rule referring to it, not the reading before the chunks start.
+            List<String> failing = new ArrayList<>(queries);
+            failing.add("(//missing) = 'x'");
+            RuleSet failingSet = treeProvider.compileAll(failing);
+            assertThrows(IllegalArgumentException.class, () -> evaluator.evaluateAll(failingSet, storage, document));
+        }
+    }
 }
@@ -0,0 +1,154 @@
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.w3c.dom.Document;
+import org.xmlevaluator.compiled.RuleSet;
+import org.xmlevaluator.dto.*;
+import org.xmlevaluator.evaluator.Calculator;
+import org.xmlevaluator.evaluator.SimplePath;
+import org.xmlevaluator.evaluator.StreamedDocument;
+import org.xmlevaluator.evaluator.StreamingExtractor;
+import org.xmlevaluator.treeMaker.TreeProvider;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StreamingExtractorTest {
+    private static final String XML = "<root>"
+            + "<period><startDate>2020-01-20</startDate><endDate>2020-12-31</endDate></period>"
+            + "<context id='c1'><name>First <b>part</b></name></context>"
+            + "<context id='c2'><name>Second</name></context>"
+            + "</root>";
+
+    TreeProvider treeProvider;
+
+    @BeforeEach
+    public void BeforeEach() {
+        treeProvider = new TreeProvider();
+    }
+
+    private InputStream input() {
+        return new ByteArrayInputStream(XML.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void simplePath_ParseTest() {
+        SimplePath path = SimplePath.parse("//xbrli:period/xbrli:startDate");
+        assertTrue(path.isAnywhere());
+        assertEquals(2, path.getStepCount());
+        assertEquals("xbrli:startDate", path.getStep(1));
+
+        SimplePath attribute = SimplePath.parse("/root/context/@id");
+        assertFalse(attribute.isAnywhere());
+        assertEquals("id", attribute.getAttribute());
+
+        assertNull(SimplePath.parse("//a[1]"));
+        assertNull(SimplePath.parse("//a//b"));
+        assertNull(SimplePath.parse("//period/(instant | endDate)"));
+        assertNull(SimplePath.parse("a/b"));
+    }
+
+    @Test
+    public void extract_FirstMatchValues() throws Exception {
+        StreamingExtractor extractor = new StreamingExtractor(Arrays.asList(
+                "//period/startDate", "/root/context/@id", "//context/name", "//missing"));
+
+        StreamedDocument document = extractor.extract(input());
+
+        assertEquals("2020-01-20", document.getValue("//period/startDate").getValue());
+        assertEquals("c1", document.getValue("/root/context/@id").getValue());
+        assertEquals("First part", document.getValue("//context/name").getValue());
+        assertTrue(document.contains("//missing"));
+        assertThrows(IllegalArgumentException.class, () -> document.getValue("//missing"));
+        assertThrows(IllegalArgumentException.class, () -> document.getValue("//other"));
+    }
+
+    @Test
+    public void extract_SameResultsAsDom() throws Exception {
+        RuleSet ruleSet = treeProvider.compileAll(Arrays.asList(
+                "xsd:date(//period/startDate) + xsd:dayTimeDuration('P1D')",
+                "xsd:string(//context/name)",
+                "fn:year-from-date(xsd:date(//endDate))"));
+        Document dom = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(input());
+
+        Result[] fromDom = new Calculator(new VariableStorage(), dom).evaluateAll(ruleSet);
+        StreamedDocument streamed = new StreamingExtractor(ruleSet).extract(input());
+        Result[] fromStream = new Calculator(new VariableStorage(), streamed).evaluateAll(ruleSet);
+
+        assertEquals(Arrays.asList(fromDom), Arrays.asList(fromStream));
+    }
+
+    @Test
+    public void extract_SequencesSameAsDom() throws Exception {
+        RuleSet ruleSet = treeProvider.compileAll(Arrays.asList(
+                "count(//context/@id)",
+                "max((//startDate), (//endDate))",
+                "fn:concat(xsd:string(//context/name), '/', xsd:string(count(//context/name)))"));
+        Document dom = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(input());
+
+        Result[] fromDom = new Calculator(new VariableStorage(), dom).evaluateAll(ruleSet);
+        StreamedDocument streamed = new StreamingExtractor(ruleSet).extract(input());
+        Result[] fromStream = new Calculator(new VariableStorage(), streamed).evaluateAll(ruleSet);
+
+        assertEquals(Arrays.asList(fromDom), Arrays.asList(fromStream));
+        assertEquals(2, fromStream[0].getValue());
+        assertEquals("First part/2", fromStream[2].getValue());
+    }
+
+    @Test
+    public void extract_NamespacesSameAsDom() throws Exception {
+        String xml = "<r xmlns='urn:d' xmlns:p='urn:p'><fact>1</fact><q:fact xmlns:q='urn:p' q:unit='u' unit='n'>2</q:fact>"
+                + "<p:period><p:startDate>2020-01-20</p:startDate></p:period></r>";
+        RuleSet ruleSet = treeProvider.compileAll(Arrays.asList(
+                "//p:fact",
+                "//p:fact/@p:unit",
+                "//p:fact/@unit",
+                "fn:year-from-date(xsd:date(//p:period/p:startDate))",
+                "count(//p:fact)"));
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        Document dom = factory.newDocumentBuilder().parse(input(xml));
+
+        Result[] fromDom = new Calculator(new VariableStorage(), dom).evaluateAll(ruleSet);
+        StreamedDocument streamed = new StreamingExtractor(ruleSet).extract(input(xml));
+        Result[] fromStream = new Calculator(new VariableStorage(), streamed).evaluateAll(ruleSet);
+
+        assertEquals(Arrays.asList(fromDom), Arrays.asList(fromStream));
+        assertEquals("2", fromStream[0].getValue());
+        assertEquals("u", fromStream[1].getValue());
+        assertEquals("n", fromStream[2].getValue());
+        // Unprefixed steps select elements without a namespace only, so the fact in the default namespace isn't found.
+        RuleSet unprefixed = treeProvider.compileAll(Collections.singletonList("//fact"));
+        StreamedDocument unprefixedStreamed = new StreamingExtractor(unprefixed).extract(input(xml));
+        assertThrows(IllegalArgumentException.class, () -> new Calculator(new VariableStorage(), dom).evaluateAll(unprefixed));
+        assertThrows(IllegalArgumentException.class,
+                () -> new Calculator(new VariableStorage(), unprefixedStreamed).evaluateAll(unprefixed));
+        StreamingExtractor undeclared = new StreamingExtractor(Collections.singletonList("//x:fact"));
+        assertThrows(IllegalArgumentException.class, () -> undeclared.extract(input(xml)));
+    }
+
+    private static InputStream input(String xml) {
+        return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void extract_UnsupportedPathRejected() {
+        RuleSet ruleSet = treeProvider.compileAll(Collections.singletonList("xsd:date(//period[1]/startDate)"));
+
+        assertThrows(IllegalArgumentException.class, () -> new StreamingExtractor(ruleSet));
+    }
+
+    @Test
+    public void extract_AxisStepRejected() {
+        RuleSet ruleSet = treeProvider.compileAll(Collections.singletonList("//a/child::b"));
+
+        assertThrows(IllegalArgumentException.class, () -> new StreamingExtractor(ruleSet));
+        assertThrows(IllegalArgumentException.class,
+                () -> new StreamingExtractor(Collections.singletonList("//root/descendant::b")));
+    }
+}
@@ -1,9 +1,19 @@
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.xmlevaluator.compiled.*;
 import org.xmlevaluator.dto.*;
+import org.xmlevaluator.treeMaker.OperatorTable;
+import org.xmlevaluator.treeMaker.ParseCache;
 import org.xmlevaluator.treeMaker.TreeProvider;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TreeProviderTest {
@@ -684,4 +694,284 @@ public class TreeProviderTest {
             assertTrue(need.at(i).equals(e.at(i)));
         }
     }
+
+    @Test
+    public void parseQuery_DeeplyNestedGroups() {
+        int depth = 200;
+        Expression e = treeProvider.parseQuery("(".repeat(depth) + "1 + (2)" + ")".repeat(depth));
+
+        Expression need = new Expression();
+        need.addPart(new Constant("1", ExpressionType.INTEGER));
+        need.addPart(new Operator(Operator.Type.PLUS));
+        need.addPart(new Constant("2", ExpressionType.INTEGER));
+
+        assertEquals(need, e);
+    }
+
+    @Test
+    public void parseQuery_BracketsCheckedInsideConditionBranches() {
+        assertThrows(UnsupportedOperationException.class, () -> treeProvider.parseQuery("if (1 then 2) else 3"));
+        assertThrows(UnsupportedOperationException.class, () -> treeProvider.parseQuery("if 1 then () else 3"));
+        assertThrows(IllegalArgumentException.class, () -> treeProvider.parseQuery("if 'a then' else 3"));
+    }
+
+    @Test
+    public void operatorTable_FindsEveryType() {
+        OperatorTable table = OperatorTable.getDefault();
+        for (Operator.Type type : Operator.Type.values()) {
+            assertEquals(type, table.find(" " + type.getStringType() + " ", 1, type.getStringType().length() + 1));
+        }
+        assertEquals(null, table.find("fn:"));
+        assertEquals(null, table.find("maximum"));
+        assertEquals(null, table.find(""));
+    }
+
+    @Test
+    public void parseQuery_RegisteredAlias() {
+        TreeProvider aliasProvider = new TreeProvider(OperatorTable.getDefault().with("fn:max", Operator.Type.MAX));
+
+        assertEquals(treeProvider.parseQuery("max(1, 2)"), aliasProvider.parseQuery("fn:max(1, 2)"));
+        assertThrows(UnsupportedOperationException.class, () -> treeProvider.parseQuery("fn:max(1, 2)"));
+    }
+
+    @Test
+    public void compile_PriorityResolved() {
+        CompiledExpression e = new ExpressionCompiler().compile(treeProvider.buildTree("1 + 7 / 2.8"));
+
+        Node need = new OperatorNode(Operator.Type.PLUS,
+                new ConstantNode(new Constant("1", ExpressionType.INTEGER)),
+                new OperatorNode(Operator.Type.DIVIDE,
+                        new ConstantNode(new Constant("7", ExpressionType.INTEGER)),
+                        new ConstantNode(new Constant("2.8", ExpressionType.DOUBLE))));
+
+        assertEquals(need, e.getRoot());
+    }
+
+    @Test
+    public void compile_LeftAssociative() {
+        CompiledExpression e = new ExpressionCompiler().compile(treeProvider.buildTree("5 - 2 + 1"));
+
+        Node need = new OperatorNode(Operator.Type.PLUS,
+                new OperatorNode(Operator.Type.MINUS,
+                        new ConstantNode(new Constant("5", ExpressionType.INTEGER)),
+                        new ConstantNode(new Constant("2", ExpressionType.INTEGER))),
+                new ConstantNode(new Constant("1", ExpressionType.INTEGER)));
+
+        assertEquals(need, e.getRoot());
+    }
+
+    @Test
+    public void compile_FunctionArguments() {
+        CompiledExpression e = treeProvider.compile("max(2, $par:rap + 1)");
+
+        Node need = new OperatorNode(Operator.Type.MAX, null, new ListNode(new Node[]{
+                new ConstantNode(new Constant("2", ExpressionType.INTEGER)),
+                new OperatorNode(Operator.Type.PLUS,
+                        new VariableNode("par:rap"),
+                        new ConstantNode(new Constant("1", ExpressionType.INTEGER)))}));
+
+        assertEquals(need, e.getRoot());
+    }
+
+    @Test
+    public void compile_Condition() {
+        CompiledExpression e = new ExpressionCompiler().compile(treeProvider.buildTree("if(xsd:date($par:par) eq xsd:date('2022-12-12')) then 'YES' else 'NO'"));
+
+        Node need = new ConditionNode(
+                new OperatorNode(Operator.Type.EQ,
+                        new OperatorNode(Operator.Type.XSD_DATE, null, new VariableNode("par:par")),
+                        new OperatorNode(Operator.Type.XSD_DATE, null,
+                                new ConstantNode(new Constant("2022-12-12", ExpressionType.STRING)))),
+                new ConstantNode(new Constant("YES", ExpressionType.STRING)),
+                new ConstantNode(new Constant("NO", ExpressionType.STRING)));
+
+        assertEquals(need, e.getRoot());
+    }
+
+    @Test
+    public void compile_FoldsConstantSubtrees() {
+        CompiledExpression e = treeProvider.compile("$par:rap * (3 * 4) + max(1, 2 + 5, 3)");
+
+        Node need = new OperatorNode(Operator.Type.PLUS,
+                new OperatorNode(Operator.Type.MULTIPLY,
+                        new VariableNode("par:rap"),
+                        new ConstantNode(new Constant("12", ExpressionType.INTEGER))),
+                new ConstantNode(new Constant("7", ExpressionType.INTEGER)));
+
+        assertEquals(need, e.getRoot());
+    }
+
+    @Test
+    public void compile_FoldsDurations() {
+        CompiledExpression e = treeProvider.compile("xsd:date($par:par) - xsd:yearMonthDuration('P1Y') + xsd:dayTimeDuration('P1D')");
+
+        Node need = new OperatorNode(Operator.Type.PLUS,
+                new OperatorNode(Operator.Type.MINUS,
+                        new OperatorNode(Operator.Type.XSD_DATE, null, new VariableNode("par:par")),
+                        new ConstantNode(new Constant("1:0:0:0:0:0", ExpressionType.PERIOD))),
+                new ConstantNode(new Constant("0:0:1:0:0:0", ExpressionType.PERIOD)));
+
+        assertEquals(need, e.getRoot());
+    }
+
+    @Test
+    public void compile_RemovesDeadBranches() {
+        CompiledExpression e = treeProvider.compile("if (1 = 2) then $par:a else (if (2 = 2) then $par:b + 1 else $par:c)");
+
+        Node need = new OperatorNode(Operator.Type.PLUS,
+                new VariableNode("par:b"),
+                new ConstantNode(new Constant("1", ExpressionType.INTEGER)));
+
+        assertEquals(need, e.getRoot());
+    }
+
+    @Test
+    public void compile_KeepsFailingOperations() {
+        CompiledExpression e = treeProvider.compile("2 * 'two'");
+
+        Node need = new OperatorNode(Operator.Type.MULTIPLY,
+                new ConstantNode(new Constant("2", ExpressionType.INTEGER)),
+                new ConstantNode(new Constant("two", ExpressionType.STRING)));
+
+        assertEquals(need, e.getRoot());
+    }
+
+    @Test
+    public void compile_SharesRepeatedSubexpressions() {
+        CompiledExpression e = treeProvider.compile("($par:a * 2 + 1) * ($par:a * 2 + 1)");
+
+        OperatorNode root = (OperatorNode) e.getRoot();
+        assertTrue(root.getLeft() instanceof SharedNode);
+        assertSame(root.getLeft(), root.getRight());
+        assertEquals(1, e.getSharedNodeCount());
+    }
+
+    @Test
+    public void compile_GivesVariablesSlots() {
+        CompiledExpression e = treeProvider.compile("$par:b + $par:a * $par:b");
+        RuleSet ruleSet = treeProvider.compileAll(Arrays.asList("$par:c + 1", "$par:b + $par:a"));
+
+        assertEquals(2, e.getVariableLayout().size());
+        assertEquals(0, e.getVariableLayout().getSlot("par:b"));
+        assertEquals(1, e.getVariableLayout().getSlot("par:a"));
+        assertEquals(-1, e.getVariableLayout().getSlot("par:c"));
+        OperatorNode product = (OperatorNode) ((OperatorNode) e.getRoot()).getRight();
+        assertEquals(1, ((VariableNode) product.getLeft()).getSlot());
+
+        assertEquals(3, ruleSet.getVariableLayout().size());
+        assertEquals("par:c", ruleSet.getVariableLayout().getName(0));
+        assertEquals(2, ((VariableNode) ((OperatorNode) ruleSet.get(1).getRoot()).getRight()).getSlot());
+    }
+
+    @Test
+    public void parseQuery_EqualTreesHaveEqualHashCodes() {
+        String query = "if (xsd:date($par:par) eq xsd:date('2022-12-12')) then max(1, 2.5, //a/b) else 'NO'";
+        Set<Expression> expressions = new HashSet<>();
+        expressions.add(treeProvider.parseQuery(query));
+        expressions.add(treeProvider.parseQuery(query));
+
+        assertEquals(1, expressions.size());
+        assertEquals(treeProvider.buildTree(query).hashCode(), treeProvider.buildTree(query).hashCode());
+    }
+
+    @Test
+    public void compile_EqualNodesHaveEqualHashCodes() {
+        ConstantNode folded = new ConstantNode(Constant.ofDate(Dates.of(2022, 12, 12)));
+        ConstantNode parsed = new ConstantNode(new Constant("2022-12-12", ExpressionType.DATE));
+        assertEquals(parsed, folded);
+        assertEquals(parsed.hashCode(), folded.hashCode());
+        assertTrue(!new ConstantNode(Constant.of(1)).equals(new ConstantNode(new Constant("1", ExpressionType.STRING))));
+
+        StringBuilder chain = new StringBuilder("$par:a");
+        for (int i = 0; i < 500; ++i) {
+            chain.append(" + ").append(i % 7);
+        }
+        CompiledExpression e = treeProvider.compile("(" + chain + ") * (" + chain + ")");
+        OperatorNode root = (OperatorNode) e.getRoot();
+        assertSame(root.getLeft(), root.getRight());
+        assertEquals(new ExpressionCompiler().compile(treeProvider.buildTree(chain.toString())).getRoot().hashCode(),
+                ((SharedNode) root.getLeft()).getNode().hashCode());
+    }
+
+    @Test
+    public void compile_NodesHaveKinds() {
+        Node root = new ExpressionCompiler().compile(
+                treeProvider.buildTree("if ($par:a = 1) then max(1, //a) + $par:a else 'NO'")).getRoot();
+        ConditionNode condition = (ConditionNode) root;
+        OperatorNode plus = (OperatorNode) condition.getThenNode();
+
+        assertEquals(Node.Kind.CONDITION, root.getKind());
+        assertEquals(Node.Kind.OPERATOR, plus.getKind());
+        assertEquals(Node.Kind.VARIABLE, plus.getRight().getKind());
+        assertEquals(Node.Kind.LIST, ((OperatorNode) plus.getLeft()).getRight().getKind());
+        assertEquals(Node.Kind.CONSTANT, condition.getElseNode().getKind());
+        assertEquals(Node.Kind.SHARED,
+                ((OperatorNode) treeProvider.compile("($par:a * 2) * ($par:a * 2)").getRoot()).getLeft().getKind());
+    }
+
+    @Test
+    public void parseQuery_FrozenTreeEqualsGrowingOne() {
+        String query = "max(1, 2, 3, 4, 5, 6, 7) + (2 - 1) * $par:a";
+        Expression frozen = treeProvider.parseQuery(query);
+        frozen.freeze();
+
+        assertEquals(treeProvider.parseQuery(query), frozen);
+        assertEquals(treeProvider.parseQuery(query).hashCode(), frozen.hashCode());
+
+        Expression sized = new Expression(2);
+        sized.addPart(new Constant("1", ExpressionType.INTEGER));
+        sized.addPart(new Operator(Operator.Type.PLUS));
+        sized.addPart(new Constant("2", ExpressionType.INTEGER));
+        assertEquals(treeProvider.parseQuery("1+2"), sized);
+        assertEquals(0, new Constant("1", ExpressionType.INTEGER).getPartsCount());
+    }
+
+    @Test
+    public void parseCache_ReturnsSharedFrozenTree() {
+        ParseCache cache = new ParseCache();
+        TreeProvider cachingProvider = new TreeProvider(cache);
+
+        Tree first = cachingProvider.buildTree("2+(2+3)");
+        Tree second = cachingProvider.buildTree("2+(2+3)");
+
+        assertSame(first, second);
+        assertEquals(treeProvider.buildTree("2+(2+3)"), first);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertThrows(UnsupportedOperationException.class, () -> first.getRoot().at(2).addPart(new Expression()));
+    }
+
+    @Test
+    public void parseCache_EvictsOverCapacity() {
+        ParseCache cache = new ParseCache(2);
+        TreeProvider cachingProvider = new TreeProvider(cache);
+
+        Tree first = cachingProvider.buildTree("1+1");
+        cachingProvider.buildTree("1+2");
+        cachingProvider.buildTree("1+3");
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        assertNotSame(first, cachingProvider.buildTree("1+1"));
+    }
+
+    @Test
+    public void parseQuery_SharesOperatorsAndLiterals() {
+        Expression first = treeProvider.parseQuery("1 + 1 = 2 and 'a' eq '1'");
+        Expression second = treeProvider.parseQuery("2 + 'a'");
+
+        assertSame(first.at(1), second.at(1));
+        assertSame(Operator.of(Operator.Type.PLUS), first.at(1));
+        assertSame(first.at(0), first.at(2));
+        assertSame(first.at(4), second.at(0));
+        assertSame(first.at(6), second.at(2));
+        assertEquals(ExpressionType.INTEGER, first.at(0).getType());
+        assertEquals(ExpressionType.STRING, first.at(8).getType());
+        assertTrue(first.at(0).isFrozen());
+        assertThrows(UnsupportedOperationException.class, () -> first.at(1).addPart(new Expression()));
+
+        assertSame(Constant.of(1), Constant.of(true));
+        assertEquals(0, Constant.of(false).getLongValue());
+        assertEquals(new Constant(100000), Constant.of(100000));
+    }
 }